@@ -0,0 +1,128 @@
+package dnp3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.value.Value;
+
+import br.org.scadabr.dnp34j.master.common.DataObject;
+import br.org.scadabr.dnp34j.master.layers.DataMap;
+import br.org.scadabr.dnp34j.master.session.DNPUser;
+import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
+import br.org.scadabr.dnp34j.master.session.config.EthernetParameters;
+import br.org.scadabr.dnp34j.master.session.database.DataElement;
+import br.org.scadabr.dnp34j.master.session.database.Database;
+
+/**
+ * Builds the inputs shared by the benchmarks: an outstation on a node tree with no broker
+ * attached, and recorded static responses for a database of a given size. The point mix and
+ * every value come from a fixed seed, so each run decodes exactly the same bytes. Outstations
+ * run on a scheduler that never runs anything, so nothing happens in the background of a
+ * measurement and no threads are started; benchmarks flush the updated points to their nodes
+ * themselves, as the end of a response does.
+ */
+class BenchFixture {
+
+	static final long SEED = 0x444E5033L;
+
+	private static final PollScheduler IDLE = new PollScheduler(1, 1) {
+		@Override
+		ScheduledFuture<?> scheduleOnce(Runnable task, long delay) {
+			return null;
+		}
+	};
+
+	// group, variation, and share of the points, roughly that of a substation RTU
+	private static final int[][] MIX = {
+		{1, 2, 30}, {10, 2, 10}, {20, 1, 10}, {30, 1, 40}, {40, 1, 10}
+	};
+
+	/**
+	 * One object header's worth of a recorded response.
+	 */
+	static class Frame {
+		final byte group;
+		final byte variation;
+		final int start;
+		final int stop;
+		final byte[] objects;
+
+		Frame(byte group, byte variation, int start, int stop, byte[] objects) {
+			this.group = group;
+			this.variation = variation;
+			this.start = start;
+			this.stop = stop;
+			this.objects = objects;
+		}
+	}
+
+	static DnpOutstation newOutstation(String name) {
+		Node root = new Node("bench", null, null);
+		DnpLink link = new DnpLink(root, IDLE);
+		Node node = root.createChild(name).build();
+		node.setAttribute("Is Serial", new Value(false));
+		return new DnpOutstation(link, node);
+	}
+
+	/**
+	 * A static response for points points, split across the object types in MIX and into
+	 * ranges of at most 250 points, as outstations do to fit their fragment size. Every
+	 * object is flagged online; variant selects one of two value sets, so that alternating
+	 * them changes every analog and counter.
+	 */
+	static List<Frame> recordResponse(int points, int variant) {
+		Random random = new Random(SEED + variant);
+		List<Frame> frames = new ArrayList<Frame>();
+		for (int[] m: MIX) {
+			byte group = (byte) m[0];
+			byte variation = (byte) m[1];
+			int count = points * m[2] / 100;
+			int bits = Math.abs(DataObject.length(group, variation));
+			for (int start = 0; start < count; start += 250) {
+				int stop = Math.min(count, start + 250) - 1;
+				int n = stop - start + 1;
+				byte[] objects = new byte[(n * bits + 7) / 8];
+				random.nextBytes(objects);
+				if (bits >= 8) {
+					for (int i = 0; i < n; i++) {
+						objects[i * bits / 8] = 0x01;
+					}
+				}
+				frames.add(new Frame(group, variation, start, stop, objects));
+			}
+		}
+		return frames;
+	}
+
+	/**
+	 * A DataMap that decodes recorded frames the way dnp34j does for a live response, handing
+	 * each element to the database.
+	 */
+	static DataMap newDataMap(Database db) {
+		DNPUser user = new DNPUser(new DNPConfig(new EthernetParameters("127.0.0.1", 20000), 0, 1));
+		user.setDatabase(db);
+		return new DataMap(user);
+	}
+
+	/**
+	 * @return the elements dnp34j produces for the frames
+	 */
+	static List<DataElement> decode(List<Frame> frames) {
+		final List<DataElement> elements = new ArrayList<DataElement>();
+		Database db = new PassThroughDatabase();
+		db.setCallback(new Database.Handler() {
+			public void dataChanged(DataElement element) {
+				elements.add(element);
+			}
+		});
+		DataMap map = newDataMap(db);
+		for (Frame f: frames) {
+			map.set(f.group, f.variation, f.start, f.stop, f.objects);
+		}
+		return elements;
+	}
+
+}
@@ -0,0 +1,76 @@
+package dnp3;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import br.org.scadabr.dnp34j.master.session.database.DataElement;
+
+/**
+ * Per-element cost of classifying and decoding what dnp34j hands the Database callback.
+ * The elements are those of a recorded 1000 point response, so the mix of groups and value
+ * strings is the same as in a real poll.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms512m", "-Xmx512m"})
+public class DataTypeBenchmark {
+
+	private static final int POINTS = 1000;
+
+	private int[] groups;
+	private String[] values;
+
+	@Setup
+	public void setup() {
+		List<DataElement> elements = BenchFixture.decode(BenchFixture.recordResponse(POINTS, 0));
+		groups = new int[elements.size()];
+		values = new String[elements.size()];
+		for (int i = 0; i < groups.length; i++) {
+			groups[i] = elements.get(i).getGroup();
+			values[i] = elements.get(i).getValue();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public void getGroupType(Blackhole bh) {
+		for (int group: groups) {
+			bh.consume(DataType.getGroupType(group));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public void decode(Blackhole bh) {
+		for (int i = 0; i < groups.length; i++) {
+			bh.consume(DataType.getGroupType(groups[i]).decode(values[i]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public void makeValue(Blackhole bh) {
+		for (int i = 0; i < groups.length; i++) {
+			Value v = DataType.getGroupType(groups[i]).makeValue(values[i]);
+			bh.consume(v);
+		}
+	}
+
+}
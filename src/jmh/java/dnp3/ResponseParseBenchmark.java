@@ -0,0 +1,93 @@
+package dnp3;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.org.scadabr.dnp34j.master.layers.DataMap;
+import br.org.scadabr.dnp34j.master.session.database.DataElement;
+import br.org.scadabr.dnp34j.master.session.database.Database;
+
+/**
+ * Recorded static responses decoded by dnp34j's DataMap, as its receive thread does for a
+ * live response, first into a database that discards them, then all the way into an
+ * outstation's point nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class ResponseParseBenchmark {
+
+	@Param({"1000", "10000", "50000"})
+	public int points;
+
+	private List<BenchFixture.Frame>[] responses;
+	private int next = 0;
+	private DataMap parseOnly;
+	private DataMap endToEnd;
+	private DnpOutstation outstation;
+	private long discarded = 0;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() {
+		responses = new List[] {
+			BenchFixture.recordResponse(points, 0), BenchFixture.recordResponse(points, 1)
+		};
+
+		Database discard = new PassThroughDatabase();
+		discard.setCallback(new Database.Handler() {
+			public void dataChanged(DataElement element) {
+				discarded++;
+			}
+		});
+		parseOnly = BenchFixture.newDataMap(discard);
+
+		final DnpOutstation outstation = BenchFixture.newOutstation("parse");
+		this.outstation = outstation;
+		Database db = new PassThroughDatabase();
+		db.setCallback(new Database.Handler() {
+			public void dataChanged(DataElement element) {
+				outstation.updateValue(element);
+			}
+		});
+		endToEnd = BenchFixture.newDataMap(db);
+		parse(endToEnd, responses[1]);
+		outstation.flushUpdates();
+	}
+
+	private static void parse(DataMap map, List<BenchFixture.Frame> frames) {
+		for (BenchFixture.Frame f: frames) {
+			map.set(f.group, f.variation, f.start, f.stop, f.objects);
+		}
+	}
+
+	@Benchmark
+	public long parseOnly() {
+		parse(parseOnly, responses[next]);
+		next ^= 1;
+		return discarded;
+	}
+
+	@Benchmark
+	public void parseAndUpdate() {
+		parse(endToEnd, responses[next]);
+		outstation.flushUpdates();
+		next ^= 1;
+	}
+
+}
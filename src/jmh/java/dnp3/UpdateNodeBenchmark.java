@@ -0,0 +1,94 @@
+package dnp3;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.org.scadabr.dnp34j.master.session.database.DataElement;
+
+/**
+ * Cost of a whole static response going through DnpOutstation.updateValue, once every point
+ * has its node, up to the point nodes being set. Each invocation alternates between two
+ * recorded value sets, so that every analog and counter changes and is published, as after a
+ * busy period.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class UpdateNodeBenchmark {
+
+	@Param({"1000", "10000", "50000"})
+	public int points;
+
+	private DnpOutstation outstation;
+	private DataElement[][] responses;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		outstation = BenchFixture.newOutstation("updateNode");
+		responses = new DataElement[2][];
+		for (int v = 0; v < responses.length; v++) {
+			List<DataElement> elements = BenchFixture.decode(BenchFixture.recordResponse(points, v));
+			responses[v] = elements.toArray(new DataElement[elements.size()]);
+		}
+		// the first response creates the point nodes
+		for (DataElement e: responses[1]) {
+			outstation.updateValue(e);
+		}
+		outstation.flushUpdates();
+	}
+
+	@Benchmark
+	public void updateAll() {
+		DataElement[] response = responses[next];
+		next ^= 1;
+		for (DataElement e: response) {
+			outstation.updateValue(e);
+		}
+		outstation.flushUpdates();
+	}
+
+	/**
+	 * The first response after discovery, which also builds every point node.
+	 */
+	@State(Scope.Thread)
+	public static class Fresh {
+		DnpOutstation outstation;
+		DataElement[] response;
+
+		@Setup(Level.Invocation)
+		public void setup(UpdateNodeBenchmark b) {
+			outstation = BenchFixture.newOutstation("discover");
+			response = b.responses[0];
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 3, batchSize = 1)
+	@Measurement(iterations = 10, batchSize = 1)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void discover(Fresh f) {
+		for (DataElement e: f.response) {
+			f.outstation.updateValue(e);
+		}
+		f.outstation.flushUpdates();
+	}
+
+}
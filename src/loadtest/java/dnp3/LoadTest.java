@@ -0,0 +1,215 @@
+package dnp3;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.value.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives a DnpLink against an in-process {@link OutstationSimulator} and reports, every
+ * REPORT_INTERVAL and for the whole run after a warmup: the link's CPU use (leaving out the
+ * simulator's threads), heap use, point updates published per second, and integrity and
+ * event poll latency percentiles. The node tree has no broker attached, as in the
+ * benchmarks, so once the first integrity polls have built the point nodes, a share of them
+ * is subscribed the way a client would, which starts polling. The heap still reachable after a collection is
+ * measured at the end of the warmup and of the run, and the test fails if it grew by more
+ * than MAX_GROWTH per outstation plus GROWTH_SLACK, since heap use should be bounded by the
+ * point count rather than by the number of polls.
+ * <p>
+ * Run with: LoadTest [outstations] [points per type] [events per second] [event poll ms]
+ * [seconds] [warmup seconds] [first port] [scheduler threads] [percent subscribed]
+ * [static poll ms]
+ */
+public class LoadTest {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoadTest.class);
+
+	private static final long REPORT_INTERVAL = 10000;
+	private static final long MAX_GROWTH = 64 << 10;
+	private static final long GROWTH_SLACK = 16 << 20;
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int points = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		double rate = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+		long eventInterval = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+		long seconds = args.length > 4 ? Long.parseLong(args[4]) : 120;
+		long warmup = args.length > 5 ? Long.parseLong(args[5]) : 20;
+		int port = args.length > 6 ? Integer.parseInt(args[6]) : 20000;
+		int threads = args.length > 7 ? Integer.parseInt(args[7]) : 8;
+		int percent = args.length > 8 ? Integer.parseInt(args[8]) : 100;
+		long staticInterval = args.length > 9 ? Long.parseLong(args[9]) : 600000;
+
+		OutstationSimulator sim = new OutstationSimulator(port, count, points, rate);
+		sim.start();
+
+		Node root = new Node("loadtest", null, null);
+		Node sched = root.createChild(DnpLink.SCHEDULER_NODE).build();
+		sched.setAttribute("Threads", new Value(threads));
+		DnpLink link = new DnpLink(root);
+		link.initPollScheduler();
+
+		List<DnpOutstation> outstations = new ArrayList<DnpOutstation>();
+		for (int i = 0; i < count; i++) {
+			Node node = root.createChild("sim" + i).build();
+			node.setAttribute("Is Serial", new Value(false));
+			node.setAttribute("Host", new Value("127.0.0.1"));
+			node.setAttribute("Port", new Value(port + i));
+			node.setAttribute("Master Address", new Value(1));
+			node.setAttribute("Outstation Address", new Value(10));
+			for (String attr: DnpOutstation.CLASS_INTERVAL_ATTRS) {
+				node.setAttribute(attr, new Value(eventInterval));
+			}
+			node.setAttribute("Static Polling Interval", new Value(staticInterval));
+			node.setAttribute("Unsolicited", new Value(false));
+			DnpOutstation os = new DnpOutstation(link, node);
+			os.init();
+			outstations.add(os);
+		}
+		LOGGER.info("Polling " + count + " simulated outstations, " + points + " points per type, "
+				+ rate + " events/s each, event polls every " + eventInterval + " ms");
+		long deadline = System.currentTimeMillis() + 60000;
+		for (DnpOutstation os: outstations) {
+			while (os.metrics.getUpdates() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(100);
+			}
+		}
+		int subscribed = 0;
+		for (DnpOutstation os: outstations) {
+			subscribed += subscribe(os.getNode(), percent);
+		}
+		LOGGER.info("Subscribed to " + subscribed + " points");
+
+		Sample start = null;
+		long startHeap = 0;
+		Sample last = new Sample(outstations, sim);
+		long end = last.time + seconds * 1000;
+		long warmEnd = last.time + warmup * 1000;
+		while (System.currentTimeMillis() < end) {
+			Thread.sleep(REPORT_INTERVAL);
+			Sample now = new Sample(outstations, sim);
+			LOGGER.info(now.report(last));
+			if (start == null && now.time >= warmEnd) {
+				start = now;
+				startHeap = retainedHeap();
+			}
+			last = now;
+		}
+		boolean ok = true;
+		if (start != null && last != start) {
+			LOGGER.info("Overall: " + last.report(start));
+			long growth = retainedHeap() - startHeap;
+			long limit = MAX_GROWTH * count + GROWTH_SLACK;
+			ok = growth <= limit;
+			String msg = String.format("Retained heap grew by %d KB, %d bytes per outstation, limit %d KB",
+					growth >> 10, growth / count, limit >> 10);
+			if (ok) LOGGER.info(msg);
+			else LOGGER.error(msg);
+		}
+		sim.stop();
+		System.exit(ok ? 0 : 1);
+	}
+
+	/**
+	 * @return the heap in use after a few full collections, the least of them
+	 */
+	private static long retainedHeap() throws InterruptedException {
+		MemoryMXBean mem = ManagementFactory.getMemoryMXBean();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+			used = Math.min(used, mem.getHeapMemoryUsage().getUsed());
+		}
+		return used;
+	}
+
+	/**
+	 * Subscribes to percent of the outstation's point nodes, spread evenly over each type.
+	 * @return the number subscribed
+	 */
+	private static int subscribe(Node outstation, int percent) {
+		int n = 0;
+		for (DataType type: DataType.values()) {
+			Node folder = outstation.getChild(type.nodeName);
+			if (folder == null || folder.getChildren() == null) continue;
+			int i = 0;
+			for (Node point: folder.getChildren().values()) {
+				if (point.getValueType() == null) continue;
+				if (i++ * percent % 100 < percent) {
+					point.getListener().postOnSubscription();
+					n++;
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Counters summed over every outstation, and the process's resource use, at one time.
+	 */
+	private static class Sample {
+		final long time = System.currentTimeMillis();
+		final long cpuNanos;
+		final long heapUsed;
+		final long updates;
+		final long failures;
+		final long events;
+		final long[] integrity;
+		final long[] event;
+
+		Sample(List<DnpOutstation> outstations, OutstationSimulator sim) {
+			OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+			long cpu = 0;
+			if (os instanceof com.sun.management.OperatingSystemMXBean) {
+				cpu = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() - sim.getCpuNanos();
+			}
+			cpuNanos = cpu;
+			MemoryMXBean mem = ManagementFactory.getMemoryMXBean();
+			heapUsed = mem.getHeapMemoryUsage().getUsed();
+			events = sim.getGenerated();
+			long u = 0;
+			long f = 0;
+			long[] in = null;
+			long[] ev = null;
+			for (DnpOutstation o: outstations) {
+				u += o.metrics.getUpdates();
+				f += o.metrics.getFailures();
+				in = add(in, o.metrics.getLatencies("integrity"));
+				ev = add(ev, o.metrics.getLatencies("event"));
+			}
+			updates = u;
+			failures = f;
+			integrity = in;
+			event = ev;
+		}
+
+		private static long[] add(long[] sum, long[] h) {
+			if (sum == null) return h;
+			for (int i = 0; i < sum.length; i++) {
+				sum[i] += h[i];
+			}
+			return sum;
+		}
+
+		String report(Sample then) {
+			double secs = (time - then.time) / 1000.0;
+			int cores = Runtime.getRuntime().availableProcessors();
+			double cpu = secs > 0 ? 100.0 * (cpuNanos - then.cpuNanos) / (secs * 1e9 * cores) : 0;
+			return String.format("cpu %.1f%% of %d cores, heap %d MB, %.0f updates/s, %.0f events/s generated, "
+					+ "%d failures, integrity p50 %d p99 %d ms, event p50 %d p99 %d ms",
+					cpu, cores, heapUsed >> 20, (updates - then.updates) / secs, (events - then.events) / secs,
+					failures - then.failures,
+					LatencyHistogram.percentile(integrity, then.integrity, 0.5),
+					LatencyHistogram.percentile(integrity, then.integrity, 0.99),
+					LatencyHistogram.percentile(event, then.event, 0.5),
+					LatencyHistogram.percentile(event, then.event, 0.99));
+		}
+	}
+
+}
@@ -0,0 +1,263 @@
+package dnp3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DNP3 outstations over TCP, one listening port each, for load testing the link without
+ * hardware. Every address the master polls on a port gets its own {@link SimulatedOutstation},
+ * created on first contact, so multi-drop channels work too. Each port is served by one
+ * thread, one master connection at a time, and a single thread generates events for all of
+ * them at eventRate per outstation per second.
+ * <p>
+ * Run standalone with: OutstationSimulator [outstations] [first port] [points per type]
+ * [events per second]
+ */
+public class OutstationSimulator {
+	private static final Logger LOGGER = LoggerFactory.getLogger(OutstationSimulator.class);
+
+	private static final long TICK = 100;
+	private static final byte[] NO_DATA = new byte[0];
+
+	private final int firstPort;
+	private final int ports;
+	private final int points;
+	private final double eventRate;
+
+	private final List<ServerSocket> servers = new CopyOnWriteArrayList<ServerSocket>();
+	private final Set<Socket> connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+	private final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+	private final List<SimulatedOutstation> stations = new CopyOnWriteArrayList<SimulatedOutstation>();
+	private final AtomicLong generated = new AtomicLong();
+	private ScheduledExecutorService generator;
+	private volatile boolean stopped = false;
+
+	OutstationSimulator(int firstPort, int ports, int points, double eventRate) {
+		this.firstPort = firstPort;
+		this.ports = ports;
+		this.points = points;
+		this.eventRate = eventRate;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		int points = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		double rate = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+		OutstationSimulator sim = new OutstationSimulator(port, count, points, rate);
+		sim.start();
+		LOGGER.info("Simulating " + count + " outstations on ports " + port + " to " + (port + count - 1)
+				+ ", " + points + " points per type, " + rate + " events/s each");
+		for (Thread t: sim.threads) {
+			t.join();
+		}
+	}
+
+	void start() throws IOException {
+		generator = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				return newDaemon(r, "Simulator Events");
+			}
+		});
+		generator.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				double expected = eventRate * TICK / 1000;
+				for (SimulatedOutstation st: stations) {
+					generated.addAndGet(st.tick(expected));
+				}
+			}
+		}, TICK, TICK, TimeUnit.MILLISECONDS);
+
+		for (int i = 0; i < ports; i++) {
+			final ServerSocket server = new ServerSocket(firstPort + i, 4);
+			servers.add(server);
+			final Map<Integer, SimulatedOutstation> byAddress = new ConcurrentHashMap<Integer, SimulatedOutstation>();
+			newDaemon(new Runnable() {
+				public void run() {
+					while (!stopped) {
+						Socket socket;
+						try {
+							socket = server.accept();
+						} catch (IOException e) {
+							if (!stopped) LOGGER.debug("", e);
+							return;
+						}
+						connections.add(socket);
+						try {
+							serve(socket, byAddress);
+						} catch (EOFException e) {
+							// the master closed the connection
+						} catch (IOException e) {
+							if (!stopped) LOGGER.debug("", e);
+						} finally {
+							connections.remove(socket);
+							try {
+								socket.close();
+							} catch (IOException e) {
+								LOGGER.debug("", e);
+							}
+						}
+					}
+				}
+			}, "Simulator " + (firstPort + i)).start();
+		}
+	}
+
+	void stop() {
+		stopped = true;
+		if (generator != null) generator.shutdownNow();
+		for (ServerSocket s: servers) {
+			try {
+				s.close();
+			} catch (IOException e) {
+				LOGGER.debug("", e);
+			}
+		}
+		for (Socket s: connections) {
+			try {
+				s.close();
+			} catch (IOException e) {
+				LOGGER.debug("", e);
+			}
+		}
+	}
+
+	/**
+	 * @return the events generated so far, over all outstations
+	 */
+	long getGenerated() {
+		return generated.get();
+	}
+
+	/**
+	 * @return the CPU time used so far by the simulator's own threads, so that a load test
+	 * running in the same process can leave it out
+	 */
+	long getCpuNanos() {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		long total = 0;
+		for (Thread t: threads) {
+			long cpu = mx.getThreadCpuTime(t.getId());
+			if (cpu > 0) total += cpu;
+		}
+		return total;
+	}
+
+	private Thread newDaemon(Runnable r, String name) {
+		Thread t = new Thread(r, name);
+		t.setDaemon(true);
+		threads.add(t);
+		return t;
+	}
+
+	/**
+	 * Per-address state of one connection: transport segments being reassembled, the next
+	 * transport sequence number, and response fragments waiting for the master's confirm.
+	 */
+	private static class Session {
+		final SimulatedOutstation station;
+		final ByteArrayOutputStream segments = new ByteArrayOutputStream();
+		final ArrayDeque<byte[]> pending = new ArrayDeque<byte[]>();
+		int seq = 0;
+
+		Session(SimulatedOutstation station) {
+			this.station = station;
+		}
+	}
+
+	private void serve(Socket socket, Map<Integer, SimulatedOutstation> byAddress) throws IOException {
+		socket.setTcpNoDelay(true);
+		InputStream in = new BufferedInputStream(socket.getInputStream());
+		OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+		Map<Integer, Session> sessions = new HashMap<Integer, Session>();
+		while (!stopped) {
+			SimFraming.Frame f = SimFraming.read(in);
+			// secondary frames would confirm our own, but everything is sent unconfirmed
+			if ((f.control & SimFraming.PRM) == 0) continue;
+			Session s = sessions.get(f.dest);
+			if (s == null) {
+				SimulatedOutstation st = byAddress.get(f.dest);
+				if (st == null) {
+					st = new SimulatedOutstation(f.dest, points, f.dest * 31L + socket.getLocalPort());
+					byAddress.put(f.dest, st);
+					stations.add(st);
+				}
+				s = new Session(st);
+				sessions.put(f.dest, s);
+			}
+			switch (f.control & 0x0F) {
+			case SimFraming.RESET_LINK:
+			case SimFraming.TEST_LINK:
+				SimFraming.write(out, SimFraming.ACK, f.src, f.dest, NO_DATA, 0, 0);
+				out.flush();
+				break;
+			case SimFraming.REQUEST_LINK_STATUS:
+				SimFraming.write(out, SimFraming.LINK_STATUS, f.src, f.dest, NO_DATA, 0, 0);
+				out.flush();
+				break;
+			case SimFraming.CON_DATA:
+				SimFraming.write(out, SimFraming.ACK, f.src, f.dest, NO_DATA, 0, 0);
+				out.flush();
+				// fall through
+			case SimFraming.UNCON_DATA:
+				byte[] fragment = reassemble(s, f.data);
+				if (fragment != null) respond(out, s, f, fragment);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return the whole application fragment once its last segment is in, otherwise null
+	 */
+	private static byte[] reassemble(Session s, byte[] segment) {
+		if (segment.length == 0) return null;
+		int th = segment[0] & 0xFF;
+		if ((th & SimFraming.TRANSPORT_FIR) != 0) s.segments.reset();
+		s.segments.write(segment, 1, segment.length - 1);
+		if ((th & SimFraming.TRANSPORT_FIN) == 0) return null;
+		byte[] fragment = s.segments.toByteArray();
+		s.segments.reset();
+		return fragment;
+	}
+
+	private static void respond(OutputStream out, Session s, SimFraming.Frame f, byte[] request) throws IOException {
+		if (request.length >= 2 && request[1] == 0) {
+			// an application confirm, for the previous fragment of a multi-fragment response
+			byte[] next = s.pending.poll();
+			if (next != null) s.seq = SimFraming.writeFragment(out, f.src, f.dest, next, s.seq);
+			return;
+		}
+		// a new request replaces whatever is left of the previous response
+		s.pending.clear();
+		s.pending.addAll(s.station.handle(request));
+		byte[] first = s.pending.poll();
+		if (first != null) s.seq = SimFraming.writeFragment(out, f.src, f.dest, first, s.seq);
+	}
+
+}
@@ -0,0 +1,148 @@
+package dnp3;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The outstation side of the DNP3 link and transport layers, just enough to talk to dnp34j:
+ * frames are read and written whole, with a CRC after the header and after every 16 bytes of
+ * user data, and transport segments are reassembled without checking their sequence.
+ */
+class SimFraming {
+
+	// link function codes; primary frames from the master have PRM set
+	static final int PRM = 0x40;
+	static final int RESET_LINK = 0x00;
+	static final int TEST_LINK = 0x02;
+	static final int CON_DATA = 0x03;
+	static final int UNCON_DATA = 0x04;
+	static final int REQUEST_LINK_STATUS = 0x09;
+	static final int ACK = 0x00;
+	static final int LINK_STATUS = 0x0B;
+
+	static final int TRANSPORT_FIN = 0x80;
+	static final int TRANSPORT_FIR = 0x40;
+	private static final int MAX_SEGMENT = 249;
+
+	static class Frame {
+		final int control;
+		final int dest;
+		final int src;
+		final byte[] data;
+
+		Frame(int control, int dest, int src, byte[] data) {
+			this.control = control;
+			this.dest = dest;
+			this.src = src;
+			this.data = data;
+		}
+	}
+
+	static int crc(byte[] b, int off, int len) {
+		int crc = 0;
+		for (int i = off; i < off + len; i++) {
+			crc ^= b[i] & 0xFF;
+			for (int j = 0; j < 8; j++) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0xA6BC : crc >>> 1;
+			}
+		}
+		return ~crc & 0xFFFF;
+	}
+
+	/**
+	 * Reads the next frame whose header CRC checks out, skipping anything else.
+	 * @throws EOFException once the master closes the connection
+	 */
+	static Frame read(InputStream in) throws IOException {
+		byte[] header = new byte[10];
+		while (true) {
+			if (readByte(in) != 0x05) continue;
+			int b = readByte(in);
+			while (b == 0x05) b = readByte(in);
+			if (b != 0x64) continue;
+			header[0] = 0x05;
+			header[1] = 0x64;
+			readFully(in, header, 2, 8);
+			if (crc(header, 0, 8) != ((header[8] & 0xFF) | (header[9] & 0xFF) << 8)) continue;
+
+			int len = (header[2] & 0xFF) - 5;
+			byte[] data = new byte[Math.max(0, len)];
+			byte[] block = new byte[18];
+			for (int off = 0; off < data.length; off += 16) {
+				int n = Math.min(16, data.length - off);
+				readFully(in, block, 0, n + 2);
+				System.arraycopy(block, 0, data, off, n);
+			}
+			int dest = (header[4] & 0xFF) | (header[5] & 0xFF) << 8;
+			int src = (header[6] & 0xFF) | (header[7] & 0xFF) << 8;
+			return new Frame(header[3] & 0xFF, dest, src, data);
+		}
+	}
+
+	static void write(OutputStream out, int control, int dest, int src, byte[] data, int off, int len) throws IOException {
+		byte[] frame = new byte[10 + len + 2 * ((len + 15) / 16)];
+		frame[0] = 0x05;
+		frame[1] = 0x64;
+		frame[2] = (byte) (5 + len);
+		frame[3] = (byte) control;
+		frame[4] = (byte) dest;
+		frame[5] = (byte) (dest >> 8);
+		frame[6] = (byte) src;
+		frame[7] = (byte) (src >> 8);
+		putCrc(frame, 0, 8);
+		int pos = 10;
+		for (int i = 0; i < len; i += 16) {
+			int n = Math.min(16, len - i);
+			System.arraycopy(data, off + i, frame, pos, n);
+			putCrc(frame, pos, n);
+			pos += n + 2;
+		}
+		out.write(frame);
+	}
+
+	/**
+	 * Sends one application fragment as unconfirmed link frames, one transport segment each.
+	 * @return the transport sequence number to use next
+	 */
+	static int writeFragment(OutputStream out, int dest, int src, byte[] fragment, int seq) throws IOException {
+		byte[] segment = new byte[MAX_SEGMENT + 1];
+		int off = 0;
+		do {
+			int n = Math.min(MAX_SEGMENT, fragment.length - off);
+			int th = seq & 0x3F;
+			if (off == 0) th |= TRANSPORT_FIR;
+			if (off + n == fragment.length) th |= TRANSPORT_FIN;
+			segment[0] = (byte) th;
+			System.arraycopy(fragment, off, segment, 1, n);
+			write(out, PRM | UNCON_DATA, dest, src, segment, 0, n + 1);
+			seq++;
+			off += n;
+		} while (off < fragment.length);
+		out.flush();
+		return seq;
+	}
+
+	private static void putCrc(byte[] b, int off, int len) {
+		int crc = crc(b, off, len);
+		b[off + len] = (byte) crc;
+		b[off + len + 1] = (byte) (crc >> 8);
+	}
+
+	private static int readByte(InputStream in) throws IOException {
+		int b = in.read();
+		if (b < 0) throw new EOFException();
+		return b;
+	}
+
+	private static void readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = in.read(b, off, len);
+			if (n < 0) throw new EOFException();
+			off += n;
+			len -= n;
+		}
+	}
+
+}
@@ -0,0 +1,474 @@
+package dnp3;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The application layer and database of one simulated outstation. It has the same number of
+ * points of each type, answers class 0 and range reads with static data, event class reads
+ * with what was generated since the last read, and echoes control requests.
+ */
+class SimulatedOutstation {
+
+	static final int MAX_FRAGMENT = 2048;
+	// per class; once full the oldest event is dropped and the overflow IIN bit is set
+	private static final int MAX_EVENTS = 1000;
+
+	private static final int CONFIRM = 0x00;
+	private static final int READ = 0x01;
+	private static final int WRITE = 0x02;
+	private static final int SELECT = 0x03;
+	private static final int OPERATE = 0x04;
+	private static final int DIRECT_OPERATE = 0x05;
+	private static final int DIRECT_OPERATE_NR = 0x06;
+	private static final int RESPONSE = 0x81;
+
+	private static final int APP_FIR = 0x80;
+	private static final int APP_FIN = 0x40;
+	private static final int APP_CON = 0x20;
+
+	private static final int IIN2_NO_FUNC_CODE = 0x01;
+	private static final int IIN2_OBJECT_UNKNOWN = 0x02;
+	private static final int IIN2_PARAMETER_ERROR = 0x04;
+	private static final int IIN2_EVENT_OVERFLOW = 0x08;
+
+	private static final int STATUS_NOT_SUPPORTED = 0x04;
+
+	// group, variation and object size in bytes of each static type, in class 0 order
+	private static final int[][] STATIC = {{1, 2, 1}, {10, 2, 1}, {20, 1, 5}, {30, 1, 5}, {40, 1, 5}};
+	private static final int BINARY = 0;
+	private static final int BINARY_OUTPUT = 1;
+	private static final int COUNTER = 2;
+	private static final int ANALOG = 3;
+	private static final int ANALOG_OUTPUT = 4;
+
+	// group, variation and object size of the events of classes 1 to 3
+	private static final int[][] EVENTS = {{2, 1, 1}, {32, 1, 5}, {22, 1, 5}};
+
+	final int address;
+	private final int points;
+	private final Random random;
+	private final boolean[] binaries;
+	private final boolean[] binaryOutputs;
+	private final int[] counters;
+	private final int[] analogs;
+	private final int[] analogOutputs;
+	// encoded index and object, per class
+	private final List<ArrayDeque<byte[]>> events = new ArrayList<ArrayDeque<byte[]>>();
+	private boolean overflow = false;
+	private double due = 0;
+
+	SimulatedOutstation(int address, int points, long seed) {
+		this.address = address;
+		this.points = points;
+		random = new Random(seed);
+		binaries = new boolean[points];
+		binaryOutputs = new boolean[points];
+		counters = new int[points];
+		analogs = new int[points];
+		analogOutputs = new int[points];
+		for (int i = 0; i < points; i++) {
+			binaries[i] = random.nextBoolean();
+			counters[i] = random.nextInt(100000);
+			analogs[i] = random.nextInt(2001) - 1000;
+		}
+		for (int i = 0; i < EVENTS.length; i++) {
+			events.add(new ArrayDeque<byte[]>());
+		}
+	}
+
+	/**
+	 * Generates the events that came due over a tick, carrying over fractions.
+	 * @return the number generated
+	 */
+	synchronized int tick(double expected) {
+		due += expected;
+		int n = 0;
+		while (due >= 1) {
+			generate();
+			due -= 1;
+			n++;
+		}
+		return n;
+	}
+
+	// a change on a random point, in roughly the mix of BenchFixture
+	private void generate() {
+		if (points == 0) return;
+		int kind = random.nextInt(8);
+		int i = random.nextInt(points);
+		if (kind < 3) {
+			binaries[i] = !binaries[i];
+			byte[] e = newEvent(i, 0);
+			e[2] = flag(binaries[i]);
+			queue(0, e);
+		} else if (kind < 7) {
+			analogs[i] += random.nextInt(201) - 100;
+			byte[] e = newEvent(i, 1);
+			e[2] = 0x01;
+			putInt(e, 3, analogs[i]);
+			queue(1, e);
+		} else {
+			counters[i]++;
+			byte[] e = newEvent(i, 2);
+			e[2] = 0x01;
+			putInt(e, 3, counters[i]);
+			queue(2, e);
+		}
+	}
+
+	private static byte[] newEvent(int index, int cls) {
+		byte[] e = new byte[2 + EVENTS[cls][2]];
+		e[0] = (byte) index;
+		e[1] = (byte) (index >> 8);
+		return e;
+	}
+
+	private void queue(int cls, byte[] e) {
+		ArrayDeque<byte[]> q = events.get(cls);
+		if (q.size() >= MAX_EVENTS) {
+			q.poll();
+			overflow = true;
+		}
+		q.add(e);
+	}
+
+	/**
+	 * @param request a whole application fragment from the master
+	 * @return the response fragments, in order, or none if the request needs no response
+	 */
+	synchronized List<byte[]> handle(byte[] request) {
+		List<byte[]> none = new ArrayList<byte[]>();
+		if (request.length < 2) return none;
+		int seq = request[0] & 0x0F;
+		Response resp = new Response();
+		switch (request[1] & 0xFF) {
+		case CONFIRM:
+			return none;
+		case READ:
+			read(request, resp);
+			break;
+		case WRITE:
+			// IIN clears and time syncs; there is nothing to keep
+			break;
+		case SELECT:
+			control(request, false, resp);
+			break;
+		case OPERATE:
+		case DIRECT_OPERATE:
+			control(request, true, resp);
+			break;
+		case DIRECT_OPERATE_NR:
+			control(request, true, resp);
+			return none;
+		default:
+			// including enable unsolicited, as nothing is ever sent unsolicited
+			resp.iin2 |= IIN2_NO_FUNC_CODE;
+		}
+		return resp.finish(seq);
+	}
+
+	private void read(byte[] req, Response resp) {
+		int pos = 2;
+		while (pos + 3 <= req.length) {
+			int group = req[pos] & 0xFF;
+			int variation = req[pos + 1] & 0xFF;
+			int qualifier = req[pos + 2] & 0xFF;
+			pos += 3;
+			int start = 0;
+			int stop = points - 1;
+			int limit = Integer.MAX_VALUE;
+			int rangeSize = rangeSize(qualifier);
+			if (rangeSize < 0 || pos + rangeSize > req.length) {
+				resp.iin2 |= IIN2_PARAMETER_ERROR;
+				return;
+			}
+			switch (qualifier) {
+			case 0x00:
+				start = u8(req, pos);
+				stop = u8(req, pos + 1);
+				break;
+			case 0x01:
+				start = u16(req, pos);
+				stop = u16(req, pos + 2);
+				break;
+			case 0x07:
+				limit = u8(req, pos);
+				break;
+			case 0x08:
+				limit = u16(req, pos);
+				break;
+			}
+			pos += rangeSize;
+			if (group == 60) {
+				if (variation == 1) {
+					for (int t = 0; t < STATIC.length; t++) {
+						addStatic(resp, t, 0, points - 1);
+					}
+				} else if (variation >= 2 && variation <= 4) {
+					addEvents(resp, variation - 2, limit);
+				} else {
+					resp.iin2 |= IIN2_OBJECT_UNKNOWN;
+				}
+				continue;
+			}
+			int type = -1;
+			for (int t = 0; t < STATIC.length; t++) {
+				if (STATIC[t][0] == group) type = t;
+			}
+			if (type < 0) {
+				resp.iin2 |= IIN2_OBJECT_UNKNOWN;
+				continue;
+			}
+			addStatic(resp, type, start, Math.min(stop, points - 1));
+		}
+	}
+
+	// bytes of range or count after a read's object header, or -1 if not supported
+	private static int rangeSize(int qualifier) {
+		switch (qualifier) {
+		case 0x00: return 2;
+		case 0x01: return 4;
+		case 0x06: return 0;
+		case 0x07: return 1;
+		case 0x08: return 2;
+		default: return -1;
+		}
+	}
+
+	private void addStatic(Response resp, int type, int start, int stop) {
+		int size = STATIC[type][2];
+		int chunk = (MAX_FRAGMENT - 4 - 7) / size;
+		for (int s = start; s <= stop; s += chunk) {
+			int e = Math.min(stop, s + chunk - 1);
+			byte[] obj = new byte[7 + (e - s + 1) * size];
+			obj[0] = (byte) STATIC[type][0];
+			obj[1] = (byte) STATIC[type][1];
+			obj[2] = 0x01;
+			obj[3] = (byte) s;
+			obj[4] = (byte) (s >> 8);
+			obj[5] = (byte) e;
+			obj[6] = (byte) (e >> 8);
+			for (int i = s, off = 7; i <= e; i++, off += size) {
+				switch (type) {
+				case BINARY:
+					obj[off] = flag(binaries[i]);
+					break;
+				case BINARY_OUTPUT:
+					obj[off] = flag(binaryOutputs[i]);
+					break;
+				case COUNTER:
+					obj[off] = 0x01;
+					putInt(obj, off + 1, counters[i]);
+					break;
+				case ANALOG:
+					obj[off] = 0x01;
+					putInt(obj, off + 1, analogs[i]);
+					break;
+				case ANALOG_OUTPUT:
+					obj[off] = 0x01;
+					putInt(obj, off + 1, analogOutputs[i]);
+					break;
+				}
+			}
+			resp.add(obj);
+		}
+	}
+
+	/**
+	 * Adds as many of the class's events as fit in the current fragment. The rest stay
+	 * queued, and the class's IIN bit tells the master to come back for them.
+	 */
+	private void addEvents(Response resp, int cls, int limit) {
+		resp.eventsRead = true;
+		ArrayDeque<byte[]> q = events.get(cls);
+		int size = 2 + EVENTS[cls][2];
+		int n = Math.min(Math.min(q.size(), limit), (resp.room() - 5) / size);
+		if (n <= 0) return;
+		byte[] obj = new byte[5 + n * size];
+		obj[0] = (byte) EVENTS[cls][0];
+		obj[1] = (byte) EVENTS[cls][1];
+		obj[2] = 0x28;
+		obj[3] = (byte) n;
+		obj[4] = (byte) (n >> 8);
+		for (int i = 0, off = 5; i < n; i++, off += size) {
+			System.arraycopy(q.poll(), 0, obj, off, size);
+		}
+		resp.add(obj);
+	}
+
+	private void control(byte[] req, boolean operate, Response resp) {
+		int pos = 2;
+		while (pos + 3 <= req.length) {
+			int headerStart = pos;
+			int group = req[pos] & 0xFF;
+			int variation = req[pos + 1] & 0xFF;
+			int qualifier = req[pos + 2] & 0xFF;
+			pos += 3;
+			int count;
+			int indexSize;
+			if (qualifier == 0x17 && pos + 1 <= req.length) {
+				count = u8(req, pos);
+				indexSize = 1;
+			} else if (qualifier == 0x28 && pos + 2 <= req.length) {
+				count = u16(req, pos);
+				indexSize = 2;
+			} else {
+				resp.iin2 |= IIN2_PARAMETER_ERROR;
+				return;
+			}
+			pos += indexSize;
+			int size = controlSize(group, variation);
+			if (size < 0) {
+				resp.iin2 |= IIN2_OBJECT_UNKNOWN;
+				return;
+			}
+			int end = pos + count * (indexSize + size);
+			if (end > req.length) {
+				resp.iin2 |= IIN2_PARAMETER_ERROR;
+				return;
+			}
+			byte[] echo = Arrays.copyOfRange(req, headerStart, end);
+			for (int k = 0; k < count; k++) {
+				int p = pos + k * (indexSize + size);
+				int index = indexSize == 1 ? u8(req, p) : u16(req, p);
+				int status = applyControl(group, variation, index, req, p + indexSize, operate);
+				echo[p - headerStart + indexSize + size - 1] = (byte) status;
+			}
+			resp.add(echo);
+			pos = end;
+		}
+	}
+
+	private static int controlSize(int group, int variation) {
+		if (group == 12 && variation == 1) return 11;
+		if (group == 41) {
+			switch (variation) {
+			case 1: return 5;
+			case 2: return 3;
+			case 3: return 5;
+			case 4: return 9;
+			}
+		}
+		return -1;
+	}
+
+	private int applyControl(int group, int variation, int index, byte[] req, int off, boolean operate) {
+		if (index >= points) return STATUS_NOT_SUPPORTED;
+		if (group == 12) {
+			int code = req[off] & 0xFF;
+			boolean value;
+			if ((code & 0xC0) == 0x40) {
+				value = true;
+			} else if ((code & 0xC0) == 0x80) {
+				value = false;
+			} else if ((code & 0x0F) == 0x01 || (code & 0x0F) == 0x03) {
+				value = true;
+			} else if ((code & 0x0F) == 0x02 || (code & 0x0F) == 0x04) {
+				value = false;
+			} else {
+				return STATUS_NOT_SUPPORTED;
+			}
+			if (operate) binaryOutputs[index] = value;
+			return 0;
+		}
+		int value;
+		switch (variation) {
+		case 1:
+			value = getInt(req, off);
+			break;
+		case 2:
+			value = (short) u16(req, off);
+			break;
+		case 3:
+			value = Math.round(Float.intBitsToFloat(getInt(req, off)));
+			break;
+		default:
+			long bits = (getInt(req, off) & 0xFFFFFFFFL) | ((long) getInt(req, off + 4) << 32);
+			value = (int) Math.round(Double.longBitsToDouble(bits));
+		}
+		if (operate) analogOutputs[index] = value;
+		return 0;
+	}
+
+	private static byte flag(boolean state) {
+		return (byte) (state ? 0x81 : 0x01);
+	}
+
+	private static int u8(byte[] b, int off) {
+		return b[off] & 0xFF;
+	}
+
+	private static int u16(byte[] b, int off) {
+		return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8;
+	}
+
+	private static int getInt(byte[] b, int off) {
+		return u16(b, off) | u16(b, off + 2) << 16;
+	}
+
+	private static void putInt(byte[] b, int off, int v) {
+		b[off] = (byte) v;
+		b[off + 1] = (byte) (v >> 8);
+		b[off + 2] = (byte) (v >> 16);
+		b[off + 3] = (byte) (v >> 24);
+	}
+
+	/**
+	 * Objects packed into fragments of at most MAX_FRAGMENT bytes, headers included.
+	 */
+	private class Response {
+		final List<byte[]> fragments = new ArrayList<byte[]>();
+		final ByteArrayOutputStream current = new ByteArrayOutputStream();
+		int iin2 = 0;
+		boolean eventsRead = false;
+
+		void add(byte[] obj) {
+			if (current.size() > 0 && obj.length > room()) {
+				fragments.add(current.toByteArray());
+				current.reset();
+			}
+			current.write(obj, 0, obj.length);
+		}
+
+		int room() {
+			return MAX_FRAGMENT - 4 - current.size();
+		}
+
+		/**
+		 * Adds the headers. Every fragment but the last asks for an application confirm, and
+		 * the IIN bits are those after the objects were taken.
+		 */
+		List<byte[]> finish(int seq) {
+			if (current.size() > 0 || fragments.isEmpty()) fragments.add(current.toByteArray());
+			int iin1 = 0;
+			for (int cls = 0; cls < EVENTS.length; cls++) {
+				if (!events.get(cls).isEmpty()) iin1 |= 0x02 << cls;
+			}
+			if (overflow) iin2 |= IIN2_EVENT_OVERFLOW;
+			if (eventsRead) overflow = false;
+
+			List<byte[]> result = new ArrayList<byte[]>(fragments.size());
+			for (int i = 0; i < fragments.size(); i++) {
+				byte[] body = fragments.get(i);
+				byte[] frag = new byte[4 + body.length];
+				int ac = (seq + i) & 0x0F;
+				if (i == 0) ac |= APP_FIR;
+				if (i == fragments.size() - 1) ac |= APP_FIN;
+				else ac |= APP_CON;
+				frag[0] = (byte) ac;
+				frag[1] = (byte) RESPONSE;
+				frag[2] = (byte) iin1;
+				frag[3] = (byte) iin2;
+				System.arraycopy(body, 0, frag, 4, body.length);
+				result.add(frag);
+			}
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,32 @@
+package dnp3;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter: the nth delay is drawn from [d/2, d], where d doubles
+ * from the base up to the maximum. The jitter keeps many outstations that failed together
+ * from all retrying together.
+ */
+class Backoff {
+
+	private final long base;
+	private final long max;
+	private int attempts = 0;
+
+	Backoff(long base, long max) {
+		this.base = base;
+		this.max = max;
+	}
+
+	synchronized long next() {
+		long d = max;
+		if (attempts < 30) d = Math.min(max, base << attempts);
+		attempts += 1;
+		return d / 2 + ThreadLocalRandom.current().nextLong(d / 2 + 1);
+	}
+
+	synchronized void reset() {
+		attempts = 0;
+	}
+
+}
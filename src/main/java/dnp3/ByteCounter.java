@@ -0,0 +1,68 @@
+package dnp3;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.org.scadabr.dnp34j.master.layers.physical.PhyLayer;
+
+/**
+ * Counts the bytes going through a connection's streams. dnp34j fetches the streams from its
+ * PhyLayer on every read and write, so they can be swapped for counting ones once the
+ * connection is open.
+ */
+class ByteCounter {
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong received = new AtomicLong();
+
+	void install(PhyLayer phy) {
+		final InputStream in = phy.getInputStream();
+		final OutputStream out = phy.getOutputStream();
+		if (in != null) {
+			phy.setInputStream(new FilterInputStream(in) {
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					if (b >= 0) received.incrementAndGet();
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = super.read(b, off, len);
+					if (n > 0) received.addAndGet(n);
+					return n;
+				}
+			});
+		}
+		if (out != null) {
+			phy.setOutputStream(new FilterOutputStream(out) {
+				@Override
+				public void write(int b) throws IOException {
+					out.write(b);
+					sent.incrementAndGet();
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					// FilterOutputStream would write this a byte at a time
+					out.write(b, off, len);
+					sent.addAndGet(len);
+				}
+			});
+		}
+	}
+
+	long getSent() {
+		return sent.get();
+	}
+
+	long getReceived() {
+		return received.get();
+	}
+
+}
@@ -0,0 +1,201 @@
+package dnp3;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.dsa.iot.dslink.node.value.Value;
+
+import br.org.scadabr.dnp34j.master.common.AppFeatures;
+import br.org.scadabr.dnp34j.master.common.DataMapFeatures;
+import br.org.scadabr.dnp34j.master.common.InitFeatures;
+import br.org.scadabr.dnp34j.master.common.utils.Buffer;
+import br.org.scadabr.dnp34j.master.session.DNPUser;
+
+/**
+ * Output writes waiting to be sent to one outstation. Writes made while a control request is
+ * queued are merged into it, the latest value per point winning, and are sent as one request
+ * of up to MAX_OBJECTS objects. The indexes that were sent are remembered, so that only their
+ * range has to be read back afterwards.
+ */
+class ControlBatch {
+
+	static final String SBO_ATTR = "Select Before Operate";
+	static final String READBACK_ATTR = "Control Readback";
+	static final String READBACK_RANGE = "Written Range";
+	static final String READBACK_EVENTS = "Events";
+
+	private static final int MAX_OBJECTS = 32;
+	private static final byte INDEXES_16 = (byte) 0x28;
+	private static final byte LATCH_ON = (byte) 0x03;
+	private static final byte LATCH_OFF = (byte) 0x04;
+
+	private final TreeMap<Integer, Boolean> binary = new TreeMap<Integer, Boolean>();
+	private final TreeMap<Integer, Double> analog = new TreeMap<Integer, Double>();
+	// written ranges not yet read back, lo > hi when there are none
+	private int binaryLo = Integer.MAX_VALUE;
+	private int binaryHi = -1;
+	private int analogLo = Integer.MAX_VALUE;
+	private int analogHi = -1;
+
+	synchronized void put(DataType type, int index, Value val) {
+		if (type == DataType.BO && val.getBool() != null) {
+			binary.put(index, val.getBool());
+		} else if (type == DataType.AO && val.getNumber() != null) {
+			analog.put(index, val.getNumber().doubleValue());
+		}
+	}
+
+	synchronized boolean isEmpty() {
+		return binary.isEmpty() && analog.isEmpty();
+	}
+
+	synchronized void clear() {
+		binary.clear();
+		analog.clear();
+		binaryLo = analogLo = Integer.MAX_VALUE;
+		binaryHi = analogHi = -1;
+	}
+
+	/**
+	 * Removes up to MAX_OBJECTS pending writes, lowest indexes first, and marks their range
+	 * for readback.
+	 * @return null if nothing is pending
+	 */
+	synchronized Controls take() {
+		if (isEmpty()) return null;
+		int nb = Math.min(binary.size(), MAX_OBJECTS);
+		int na = Math.min(analog.size(), MAX_OBJECTS - nb);
+		Controls c = new Controls(nb, na);
+		Iterator<Map.Entry<Integer, Boolean>> bit = binary.entrySet().iterator();
+		for (int i = 0; i < nb; i++) {
+			Map.Entry<Integer, Boolean> e = bit.next();
+			c.binaryIndexes[i] = e.getKey();
+			c.binaryValues[i] = e.getValue().booleanValue();
+			bit.remove();
+		}
+		Iterator<Map.Entry<Integer, Double>> ait = analog.entrySet().iterator();
+		for (int i = 0; i < na; i++) {
+			Map.Entry<Integer, Double> e = ait.next();
+			c.analogIndexes[i] = e.getKey();
+			c.analogValues[i] = e.getValue().doubleValue();
+			ait.remove();
+		}
+		if (nb > 0) {
+			binaryLo = Math.min(binaryLo, c.binaryIndexes[0]);
+			binaryHi = Math.max(binaryHi, c.binaryIndexes[nb - 1]);
+		}
+		if (na > 0) {
+			analogLo = Math.min(analogLo, c.analogIndexes[0]);
+			analogHi = Math.max(analogHi, c.analogIndexes[na - 1]);
+		}
+		return c;
+	}
+
+	synchronized boolean hasReadback() {
+		return binaryHi >= 0 || analogHi >= 0;
+	}
+
+	/**
+	 * Builds a read of the output status points in the ranges written since the last readback,
+	 * and clears them.
+	 */
+	synchronized Buffer takeReadback(DNPUser user) throws Exception {
+		Buffer frame = new Buffer(InitFeatures.S);
+		if (binaryHi >= 0) {
+			user.getAppSnd().addObjectToRequest(frame, AppFeatures.READ, DataMapFeatures.BINARY_OUTPUT_STATIC, (byte) 0, binaryLo, binaryHi, false);
+		}
+		if (analogHi >= 0) {
+			user.getAppSnd().addObjectToRequest(frame, AppFeatures.READ, DataMapFeatures.ANALOG_OUTPUT_STATIC, (byte) 0, analogLo, analogHi, false);
+		}
+		binaryLo = analogLo = Integer.MAX_VALUE;
+		binaryHi = analogHi = -1;
+		return frame;
+	}
+
+	/**
+	 * One request's worth of writes, taken from the batch.
+	 */
+	static class Controls {
+		final int[] binaryIndexes;
+		final boolean[] binaryValues;
+		final int[] analogIndexes;
+		final double[] analogValues;
+
+		Controls(int binaries, int analogs) {
+			binaryIndexes = new int[binaries];
+			binaryValues = new boolean[binaries];
+			analogIndexes = new int[analogs];
+			analogValues = new double[analogs];
+		}
+
+		/**
+		 * Builds the writes into one frame with the given function code (select, operate or
+		 * direct operate). Binary outputs are sent as latch on/off CROBs (g12v1). Analog outputs
+		 * holding whole numbers are sent as 32 bit integers (g41v1), the rest as doubles (g41v4).
+		 */
+		Buffer build(DNPUser user, byte fc) {
+			Buffer frame = new Buffer(InitFeatures.S);
+			if (binaryIndexes.length > 0) {
+				writeHeader(frame, user, fc, DataMapFeatures.BINARY_OUTPUT_COMMAND, (byte) 1, binaryIndexes.length);
+				for (int i = 0; i < binaryIndexes.length; i++) {
+					frame.writeBytes(binaryIndexes[i]);
+					frame.writeByte(binaryValues[i] ? LATCH_ON : LATCH_OFF);
+					frame.writeByte((byte) 1);
+					writeInt(frame, 0);
+					writeInt(frame, 0);
+					frame.writeByte((byte) 0);
+				}
+			}
+			int ints = 0;
+			for (double v: analogValues) {
+				if (isInt(v)) ints++;
+			}
+			if (ints > 0) {
+				writeHeader(frame, user, fc, DataMapFeatures.ANALOG_OUTPUT_COMMAND, (byte) 1, ints);
+				for (int i = 0; i < analogIndexes.length; i++) {
+					if (!isInt(analogValues[i])) continue;
+					frame.writeBytes(analogIndexes[i]);
+					writeInt(frame, (int) analogValues[i]);
+					frame.writeByte((byte) 0);
+				}
+			}
+			if (ints < analogIndexes.length) {
+				writeHeader(frame, user, fc, DataMapFeatures.ANALOG_OUTPUT_COMMAND, (byte) 4, analogIndexes.length - ints);
+				for (int i = 0; i < analogIndexes.length; i++) {
+					if (isInt(analogValues[i])) continue;
+					frame.writeBytes(analogIndexes[i]);
+					long bits = Double.doubleToLongBits(analogValues[i]);
+					writeInt(frame, (int) bits);
+					writeInt(frame, (int) (bits >>> 32));
+					frame.writeByte((byte) 0);
+				}
+			}
+			return frame;
+		}
+	}
+
+	private static void writeHeader(Buffer frame, DNPUser user, byte fc, byte group, byte variation, int count) {
+		if (frame.length() == 0) {
+			// this writes the application header, followed by an all points qualifier that is
+			// replaced below
+			user.getAppSnd().addObjectToRequest(frame, fc, group, variation);
+			frame.decrMarker(1);
+		} else {
+			frame.writeByte(group);
+			frame.writeByte(variation);
+		}
+		frame.writeByte(INDEXES_16);
+		frame.writeBytes(count);
+	}
+
+	private static void writeInt(Buffer frame, int v) {
+		frame.writeBytes(v & 0xFFFF);
+		frame.writeBytes(v >>> 16);
+	}
+
+	private static boolean isInt(double v) {
+		return v == Math.rint(v) && v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE;
+	}
+
+}
@@ -0,0 +1,101 @@
+package dnp3;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+
+enum DataType {
+	BI("Binary Input", 0x01), AI("Analog Input", 0x30), CI("Counter Input", 0x20), BO("Control Output", 0x10), AO("Analog Output", 0x40), DI("Double Input", 0x03);
+
+	private static final String[] DOUBLE_BIT_STATES = {"Intermediate", "Off", "On", "Indeterminate"};
+	
+	private String name;
+	final String nodeName;
+	final int group;
+	
+	private DataType(String name, int group) {
+		this.name = name;
+		this.nodeName = name + "s";
+		this.group = group;
+	}
+	
+	@Override
+	public String toString() {
+		return name;
+	}
+	
+	public static DataType getGroupType(int group) {
+		switch(group) {
+		case 0x00:
+		case 0x01:
+			return BI;
+		case 0x03:
+			return DI;
+		case 0x10:
+			return BO;
+		case 0x20:
+			return CI;
+		case 0x30:
+			return AI;
+		case 0x40:
+			return AO;
+		default:
+			return null;
+		}
+	}
+	
+	public ValueType getValueType() {
+		switch(this) {
+		case BI:
+		case BO:
+			return ValueType.BOOL;
+		case DI:
+			return ValueType.makeEnum(DOUBLE_BIT_STATES);
+		default:
+			return ValueType.NUMBER;
+		}
+	}
+	
+	public Value makeValue(String str) {
+		return toValue(decode(str));
+	}
+	
+	/**
+	 * Parses a dnp34j value string into its primitive form: 0 or 1 for binaries, the state
+	 * ordinal for double inputs, the unsigned count for counters, and the analog value itself.
+	 */
+	public double decode(String str) {
+		switch(this) {
+		case BI:
+		case BO:
+			return ValueParser.parseBoolean(str) ? 1 : 0;
+		case DI:
+			return doubleBitOrdinal(str);
+		case CI:
+			// dnp34j narrows counters to a signed int, so 32-bit counts past 2^31 arrive negative
+			return ValueParser.parseLong(str) & 0xFFFFFFFFL;
+		default:
+			return ValueParser.parseDouble(str);
+		}
+	}
+	
+	public Value toValue(double v) {
+		switch(this) {
+		case BI:
+		case BO:
+			return new Value(Boolean.valueOf(v != 0));
+		case DI:
+			return new Value(DOUBLE_BIT_STATES[(int) v & 3]);
+		case CI:
+			return new Value(Long.valueOf((long) v));
+		default:
+			return new Value(Double.valueOf(v));
+		}
+	}
+	
+	private static int doubleBitOrdinal(String str) {
+		if (str == null || str.length() < 2) return 0;
+		if (str.charAt(0) == 'O') return str.length() == 2 ? 2 : 1;
+		if (str.length() > 2 && str.charAt(2) == 'd') return 3;
+		return 0;
+	}
+}
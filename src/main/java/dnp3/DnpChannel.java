@@ -0,0 +1,591 @@
+package dnp3;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.dsa.iot.dslink.node.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.org.scadabr.dnp34j.master.common.utils.Buffer;
+import br.org.scadabr.dnp34j.master.session.DNPUser;
+import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
+import br.org.scadabr.dnp34j.master.session.config.EthernetParameters;
+import br.org.scadabr.dnp34j.master.session.config.SerialParameters;
+import br.org.scadabr.dnp34j.master.session.database.DataElement;
+import br.org.scadabr.dnp34j.master.session.database.Database;
+
+/**
+ * One physical connection (a COM port, or a host:port) shared by every outstation that
+ * addresses it. The channel owns the DNPUser, whose address list holds the master address
+ * followed by each member's outstation address. Requests are taken from the members'
+ * queues round-robin and sent one at a time, addressed to that member. dnp34j keeps one
+ * application sequence number per connection, so a request is only sent once the one before
+ * it has completed, but no thread waits for the response: it is matched to the request as
+ * its fragments are handled, and timeouts run on the poll timer.
+ */
+class DnpChannel {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DnpChannel.class);
+
+	private static final long RECONNECT_DELAY = 500;
+	private static final long MAX_RECONNECT_DELAY = 5 * 60 * 1000;
+	private static final long RESET_LINK_TIMEOUT = 500;
+	// no function code support, object unknown, parameter error
+	private static final byte IIN2_REQUEST_ERRORS = (byte) 0x07;
+	// what a request fails with when no response arrives in time, as DNPUser.sendSynch has it
+	private static final String TIMEOUT_MESSAGE = "REQUEST TIMEOUT EXCEPTION";
+	// how long to wait for dnp34j to send the confirm of a final fragment
+	private static final long CONFIRM_WAIT = 200;
+	private static final long CONFIRM_POLL = 10;
+	// left quiet after a timeout on a shared TCP connection, whose line speed is not known
+	private static final long QUIET_TIME = 500;
+	private static final int SEQ_MASK = 0x0F;
+	private static final int AC_FIR = 0x80;
+	private static final int AC_FIN = 0x40;
+	private static final int AC_UNS = 0x10;
+	private static final byte RESPONSE = (byte) 0x81;
+
+	private final DnpLink link;
+	final String key;
+	private final boolean isSerial;
+
+	private final List<DnpOutstation> members = new CopyOnWriteArrayList<DnpOutstation>();
+	private final Object connectLock = new Object();
+	// a request is in flight, or being picked
+	private final AtomicBoolean busy = new AtomicBoolean(false);
+	private final Backoff reconnectBackoff = new Backoff(RECONNECT_DELAY * 2, MAX_RECONNECT_DELAY);
+	private ScheduledFuture<?> pendingConnect;
+	private int cursor = 0;
+
+	private volatile DNPUser user;
+	private volatile ByteCounter bytes = new ByteCounter();
+	private volatile boolean attempted = false;
+	private volatile long quietTime = QUIET_TIME;
+	private volatile DnpOutstation[] stations = new DnpOutstation[0];
+	private volatile InFlight inFlight = null;
+
+	private final Runnable drainTask = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+
+	private final Runnable connectTask = new Runnable() {
+		public void run() {
+			connect();
+		}
+	};
+
+	private final ResponseUser.Listener responses = new ResponseUser.Listener() {
+		public void fragment(ResponseUser user, byte ac, byte fc, byte iin1, byte iin2) {
+			DnpChannel.this.fragment(user, ac, fc, iin1, iin2);
+		}
+	};
+
+	DnpChannel(DnpLink link, String key, boolean isSerial) {
+		this.link = link;
+		this.key = key;
+		this.isSerial = isSerial;
+	}
+
+	static String keyFor(Node node, boolean isSerial) {
+		if (isSerial) {
+			return "serial:" + node.getAttribute("COM Port").getString();
+		} else {
+			return "tcp:" + node.getAttribute("Host").getString() + ":" + node.getAttribute("Port").getNumber().intValue();
+		}
+	}
+
+	/**
+	 * @return null if the outstation was attached, otherwise the reason it could not be
+	 */
+	synchronized String attach(DnpOutstation os) {
+		for (DnpOutstation other: members) {
+			if (other.getMasterAddress() != os.getMasterAddress()) {
+				return "Master Address conflicts with " + other.getName();
+			}
+			if (other.getOutstationAddress() == os.getOutstationAddress()) {
+				return "Outstation Address conflicts with " + other.getName();
+			}
+		}
+		members.add(os);
+		os.requests.setChannel(this);
+		scheduleConnect();
+		return null;
+	}
+
+	/**
+	 * @return true if this was the last member, and the channel has been closed
+	 */
+	synchronized boolean detach(DnpOutstation os) {
+		os.requests.setChannel(null);
+		os.stationIndex = 0;
+		if (!members.remove(os)) return members.isEmpty();
+		if (members.isEmpty()) {
+			if (pendingConnect != null) pendingConnect.cancel(false);
+			synchronized (connectLock) {
+				closeUser();
+				stations = new DnpOutstation[0];
+			}
+			return true;
+		}
+		scheduleConnect();
+		return false;
+	}
+
+	int size() {
+		return members.size();
+	}
+
+	int getQueuedRequests() {
+		int n = 0;
+		for (DnpOutstation os: members) {
+			n += os.requests.size();
+		}
+		return n;
+	}
+
+	private synchronized void scheduleConnect() {
+		if (pendingConnect != null && !pendingConnect.isDone()) return;
+		pendingConnect = link.getPollScheduler().scheduleConnect(connectTask, RECONNECT_DELAY);
+	}
+	
+	/**
+	 * Called by a member that has gone offline. If every member is offline the connection
+	 * itself is reopened, after a backoff.
+	 * @return true if the channel will reconnect, false if the member should probe on its own
+	 */
+	boolean memberOffline() {
+		for (DnpOutstation os: members) {
+			if (os.getState() != DnpOutstation.LinkState.OFFLINE) return false;
+		}
+		scheduleReconnect();
+		return true;
+	}
+
+	void memberOnline() {
+		reconnectBackoff.reset();
+	}
+
+	private synchronized void scheduleReconnect() {
+		if (members.isEmpty()) return;
+		if (pendingConnect != null && !pendingConnect.isDone()) return;
+		long delay = reconnectBackoff.next();
+		for (DnpOutstation os: members) {
+			os.setStatus("Offline, reconnecting in " + (delay / 1000) + "s");
+		}
+		pendingConnect = link.getPollScheduler().scheduleConnect(connectTask, delay);
+	}
+
+	/**
+	 * @return true once the first connection attempt has finished, whether or not it succeeded
+	 */
+	boolean isAttempted() {
+		return attempted;
+	}
+
+	/**
+	 * (Re)opens the connection for the current members. The DNPUser's address list is fixed
+	 * when it is created, so a change of membership means a new connection.
+	 */
+	private void connect() {
+		try {
+			doConnect();
+		} finally {
+			if (!attempted) {
+				attempted = true;
+				link.connectAttempted(this);
+			}
+		}
+	}
+	
+	private void doConnect() {
+		DnpOutstation[] snapshot;
+		boolean[] results;
+		synchronized (connectLock) {
+			closeUser();
+			snapshot = members.toArray(new DnpOutstation[members.size()]);
+			if (snapshot.length == 0) return;
+			results = new boolean[snapshot.length];
+
+			DnpOutstation first = snapshot[0];
+			int[] addresses = new int[snapshot.length + 1];
+			addresses[0] = first.getMasterAddress();
+			DnpOutstation[] newStations = new DnpOutstation[snapshot.length + 1];
+			for (int i = 0; i < snapshot.length; i++) {
+				addresses[i + 1] = snapshot[i].getOutstationAddress();
+				newStations[i + 1] = snapshot[i];
+				snapshot[i].stationIndex = i + 1;
+			}
+			for (DnpOutstation os: snapshot) {
+				os.setStatus("Connecting");
+			}
+			DNPConfig configuration = makeConfig(first.getNode(), addresses[0], addresses[1]);
+			quietTime = quietTimeFor(first.getNode());
+			configuration.setDNPAddressList(addresses);
+
+			final DNPUser u = new ResponseUser(configuration, responses);
+			boolean firstReset = true;
+			try {
+				u.init();
+			} catch (Exception e) {
+				LOGGER.debug("", e);
+				firstReset = false;
+				if (u.getUserRcvLock() == null) {
+					// the port or socket could not be opened
+					try {
+						u.stop();
+					} catch (Exception e1) {
+						LOGGER.debug("", e1);
+					}
+					snapshot = null;
+				}
+			}
+			if (snapshot != null) open(u, addresses, snapshot, newStations, firstReset, results);
+		}
+		// outstations are notified outside connectLock, since going offline may reschedule
+		// this channel's connect
+		boolean any = false;
+		if (snapshot != null) {
+			for (boolean ok: results) {
+				any |= ok;
+			}
+		}
+		if (!any) {
+			// nothing answered, so the whole channel is down
+			for (DnpOutstation os: members) {
+				os.channelDown();
+			}
+			scheduleReconnect();
+			return;
+		}
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i].connectionChanged(results[i]);
+		}
+		scheduleDrain();
+	}
+
+	/**
+	 * Installs a freshly initialised DNPUser and resets the link to every member after the
+	 * first, whose link was reset by init. Each member's result is stored in results.
+	 */
+	private void open(final DNPUser u, int[] addresses, DnpOutstation[] snapshot, DnpOutstation[] newStations, boolean firstReset, boolean[] results) {
+		Database db = new PassThroughDatabase();
+		db.setCallback(new Database.Handler() {
+			public void dataChanged(DataElement element) {
+				int station = u.getLnkRcv().getCurrentRemoteStation();
+				DnpOutstation[] st = stations;
+				if (station > 0 && station < st.length) st[station].updateValue(element);
+			}
+		});
+		u.setDatabase(db);
+		ByteCounter counter = new ByteCounter();
+		counter.install(u.getPhyLayer());
+		new FrameCapture(addresses, newStations).install(u.getPhyLayer());
+
+		bytes = counter;
+		stations = newStations;
+		user = u;
+
+		results[0] = firstReset;
+		for (int i = 1; i < snapshot.length; i++) {
+			try {
+				u.getLnkSnd().setAddressToReportTo(i + 1);
+				results[i] = u.getLnkRcv().initLink(RESET_LINK_TIMEOUT);
+			} catch (Exception e) {
+				LOGGER.debug("", e);
+			}
+		}
+	}
+
+	private DNPConfig makeConfig(Node node, int maddr, int oaddr) {
+		if (isSerial) {
+			String com = node.getAttribute("COM Port").getString();
+			int baud = node.getAttribute("Baud Rate").getNumber().intValue();
+			int dbits = node.getAttribute("Data Bits").getNumber().intValue();
+			int sbits = node.getAttribute("Stop Bits").getNumber().intValue();
+			int parity = node.getAttribute("Parity").getNumber().intValue();
+
+			SerialParameters params = new SerialParameters(com, baud, dbits, sbits, parity);
+			return new DNPConfig(params, maddr, oaddr);
+		} else {
+			String host = node.getAttribute("Host").getString();
+			int port = node.getAttribute("Port").getNumber().intValue();
+
+			EthernetParameters params = new EthernetParameters(host, port);
+			return new DNPConfig(params, maddr, oaddr);
+		}
+	}
+
+	/**
+	 * @return how long an outstation may still be sending after its request timed out: two
+	 * of the longest link frames at the port's baud rate, or QUIET_TIME over TCP
+	 */
+	private long quietTimeFor(Node node) {
+		if (!isSerial) return QUIET_TIME;
+		int baud = Math.max(1, node.getAttribute("Baud Rate").getNumber().intValue());
+		// 11 bits a byte, counting start, parity and stop bits
+		return 2 * FrameRing.MAX_FRAME * 11 * 1000L / baud + CONFIRM_WAIT;
+	}
+
+	private void closeUser() {
+		DNPUser u = user;
+		user = null;
+		if (u != null) {
+			try {
+				u.stop();
+			} catch (Exception e) {
+				LOGGER.debug("", e);
+			}
+		}
+		// no response can arrive now
+		final InFlight f = inFlight;
+		if (f != null && f.finish()) {
+			f.timeout.cancel(false);
+			link.getPollScheduler().execute(new Runnable() {
+				public void run() {
+					complete(f, new Exception("Connection closed"));
+				}
+			});
+		}
+	}
+
+	void scheduleDrain() {
+		if (busy.compareAndSet(false, true)) link.getPollScheduler().execute(drainTask);
+	}
+
+	/**
+	 * Sends the next member's request. The channel stays busy until that request has
+	 * completed or failed, and then drains again.
+	 */
+	private void drain() {
+		DnpOutstation os;
+		DnpRequest req;
+		do {
+			os = nextReady();
+			if (os == null) {
+				busy.set(false);
+				// a request may have been queued after nextReady looked
+				if (nextReadyIndex(stations) >= 0) scheduleDrain();
+				return;
+			}
+			req = os.requests.poll();
+		} while (req == null || !send(os, req));
+	}
+
+	/**
+	 * Round-robin over the members that have a station on the current connection and
+	 * something queued.
+	 */
+	private DnpOutstation nextReady() {
+		DnpOutstation[] st = stations;
+		int i = nextReadyIndex(st);
+		if (i < 0) return null;
+		cursor = i + 1;
+		return st[i];
+	}
+
+	private int nextReadyIndex(DnpOutstation[] st) {
+		int n = st.length - 1;
+		for (int j = 0; j < n; j++) {
+			int i = 1 + (cursor - 1 + j + n) % n;
+			if (!st[i].requests.isEmpty()) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Hands the request to dnp34j without waiting for its response, and starts its timeout
+	 * on the timer.
+	 * @return false if it could not be sent, and has already been failed
+	 */
+	private boolean send(DnpOutstation os, DnpRequest req) {
+		final DNPUser u = user;
+		Exception error = null;
+		if (u == null || os.stationIndex <= 0) {
+			error = new Exception("Not connected");
+		} else {
+			InFlight sent = null;
+			try {
+				u.getLnkSnd().setAddressToReportTo(os.stationIndex);
+				Buffer frame = req.build(u);
+				ByteCounter counter = bytes;
+				final InFlight f = new InFlight(u, os, req, frame.value(0) & SEQ_MASK, counter);
+				f.expire = new Runnable() {
+					public void run() {
+						if (f.finish()) complete(f, new Exception(TIMEOUT_MESSAGE));
+					}
+				};
+				// armed first, so that a response arriving straight away finds it to cancel
+				armTimeout(f);
+				sent = f;
+				inFlight = f;
+				u.send(frame);
+				return true;
+			} catch (Exception e) {
+				if (sent != null) {
+					// a response or the timeout may have completed it already; otherwise it
+					// fails here, and the timeout must not fail it again or release the channel
+					if (!sent.finish()) return true;
+					ScheduledFuture<?> t = sent.timeout;
+					if (t != null) t.cancel(false);
+					if (inFlight == sent) inFlight = null;
+				}
+				error = e;
+			}
+		}
+		os.requests.release(req);
+		req.failed(error);
+		return false;
+	}
+
+	/**
+	 * (Re)starts the request's timeout. As with sendSynch, it is the time allowed for the
+	 * next fragment to arrive, so long responses are not cut short.
+	 */
+	private void armTimeout(InFlight f) {
+		ScheduledFuture<?> old = f.timeout;
+		if (old != null) old.cancel(false);
+		f.timeout = link.getPollScheduler().scheduleOnce(f.expire, f.user.getConfig().getRequestTimeout());
+	}
+
+	/**
+	 * Called on dnp34j's receive thread for every response fragment. Fragments of the request
+	 * in flight are recognised by their sequence number: the first one carries the request's,
+	 * and each one after that the next. The request completes with the final fragment, once
+	 * all of its objects have been handled. Unsolicited responses have a sequence of their
+	 * own, and are told apart by their function code, so one that arrives while a request is
+	 * in flight only has its objects handled.
+	 */
+	private void fragment(ResponseUser u, byte ac, byte fc, byte iin1, byte iin2) {
+		final InFlight f = inFlight;
+		if (f == null || f.user != u) return;
+		if (fc != RESPONSE || (ac & AC_UNS) != 0) return;
+		synchronized (f) {
+			if ((ac & SEQ_MASK) != f.nextSeq || (f.fragments == 0 && (ac & AC_FIR) == 0)) {
+				LOGGER.debug("Ignoring response fragment with sequence " + (ac & SEQ_MASK) + ", expected " + f.nextSeq);
+				return;
+			}
+			f.fragments++;
+			f.nextSeq = (f.nextSeq + 1) & SEQ_MASK;
+			f.iin1 = iin1;
+			f.iin2 |= iin2;
+			if ((ac & AC_FIN) == 0) {
+				armTimeout(f);
+				return;
+			}
+		}
+		if (!f.finish()) return;
+		f.timeout.cancel(false);
+		link.getPollScheduler().execute(new Runnable() {
+			public void run() {
+				complete(f, null);
+			}
+		});
+	}
+
+	/**
+	 * Reports the request's outcome, then sends the request that has to follow it, if any,
+	 * or frees the channel for the next member.
+	 */
+	private void complete(InFlight f, Exception error) {
+		DnpOutstation os = f.os;
+		DnpRequest req = f.req;
+		long millis = System.currentTimeMillis() - f.start;
+		inFlight = null;
+		os.frames.request(req.key, f.start, millis, error != null ? error.getMessage() : null);
+		// anything that arrives unsolicited while this request is in flight is counted with it
+		os.metrics.bytes(f.counter.getSent() - f.sent, f.counter.getReceived() - f.received);
+		os.requests.release(req);
+		DnpRequest next = null;
+		try {
+			if (error == null) {
+				os.metrics.requestCompleted(req, millis);
+				os.requestSucceeded(req);
+				os.checkIin(f.iin1, f.iin2, req);
+				req.completed(millis);
+				next = req.next();
+				if (next != null && (f.iin2 & IIN2_REQUEST_ERRORS) != 0) {
+					next.failed(new Exception(String.format("Request rejected, IIN2 0x%02x", f.iin2)));
+					next = null;
+				}
+			} else {
+				os.metrics.requestFailed(TIMEOUT_MESSAGE.equals(error.getMessage()));
+				os.requestFailed();
+				req.failed(error);
+			}
+		} catch (Exception e) {
+			LOGGER.debug("", e);
+		}
+		if (next != null && send(os, next)) return;
+		if (error != null && members.size() > 1) {
+			link.getPollScheduler().scheduleOnce(new Runnable() {
+				public void run() {
+					release(null, 0);
+				}
+			}, quietTime);
+		} else {
+			release(f.user, CONFIRM_WAIT / CONFIRM_POLL);
+		}
+	}
+
+	/**
+	 * Frees the channel for the next member once the line is quiet. dnp34j queues the confirm
+	 * of a final fragment in its link layer, which addresses frames as they go out, so another
+	 * request must not be addressed until the queue has been sent. After a timeout on a shared
+	 * connection, complete waits quietTime first, since the outstation may still be part way
+	 * through its response and the next one would talk over it.
+	 * @param polls how many more times to look at the link layer's queue
+	 */
+	private void release(final DNPUser u, final long polls) {
+		if (u != null && u == user && polls > 0 && !u.getLnkSnd().getLnkSndQueue().empty()) {
+			link.getPollScheduler().scheduleOnce(new Runnable() {
+				public void run() {
+					release(u, polls - 1);
+				}
+			}, CONFIRM_POLL);
+			return;
+		}
+		busy.set(false);
+		scheduleDrain();
+	}
+
+	/**
+	 * The one request a channel has in flight. It is finished exactly once, by its final
+	 * response fragment, its timeout, or the connection closing.
+	 */
+	private static class InFlight {
+		final DNPUser user;
+		final DnpOutstation os;
+		final DnpRequest req;
+		final long start = System.currentTimeMillis();
+		final ByteCounter counter;
+		final long sent;
+		final long received;
+		private final AtomicBoolean finished = new AtomicBoolean(false);
+		Runnable expire;
+		volatile ScheduledFuture<?> timeout;
+		int nextSeq;
+		int fragments = 0;
+		byte iin1 = 0;
+		byte iin2 = 0;
+
+		InFlight(DNPUser user, DnpOutstation os, DnpRequest req, int seq, ByteCounter counter) {
+			this.user = user;
+			this.os = os;
+			this.req = req;
+			this.nextSeq = seq;
+			this.counter = counter;
+			sent = counter.getSent();
+			received = counter.getReceived();
+		}
+
+		boolean finish() {
+			return finished.compareAndSet(false, true);
+		}
+	}
+
+}
@@ -1,213 +1,486 @@
-package dnp3;
-
-import java.util.HashSet;
-import java.util.Set;
-
-import org.dsa.iot.dslink.node.Node;
-import org.dsa.iot.dslink.node.Permission;
-import org.dsa.iot.dslink.node.actions.Action;
-import org.dsa.iot.dslink.node.actions.ActionResult;
-import org.dsa.iot.dslink.node.actions.Parameter;
-import org.dsa.iot.dslink.node.value.Value;
-import org.dsa.iot.dslink.node.value.ValueType;
-import org.dsa.iot.dslink.serializer.Deserializer;
-import org.dsa.iot.dslink.serializer.Serializer;
-import org.dsa.iot.dslink.util.handler.Handler;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.serotonin.io.serial.CommPortConfigException;
-import com.serotonin.io.serial.CommPortProxy;
-import com.serotonin.io.serial.SerialUtils;
-
-public class DnpLink {
-	
-	private static final Logger LOGGER = LoggerFactory.getLogger(DnpLink.class);
-	
-	private Node node;
-	Serializer copySerializer;
-	Deserializer copyDeserializer;
-	Set<DnpOutstation> serialOutstations = new HashSet<DnpOutstation>();
-	
-	private DnpLink(Node node, Serializer copyser, Deserializer copydeser) {
-		this.node = node;
-		this.copySerializer = copyser;
-		this.copyDeserializer = copydeser;
-	}
-	
-	public static void start(Node node, Serializer copyser, Deserializer copydeser) {
-		DnpLink dl = new DnpLink(node, copyser, copydeser);
-		dl.init();
-	}
-
-	private void init() {
-		restoreLastSession();
-		
-		makeAddOutstationAction(false);
-		makeAddOutstationAction(true);
-		makePortScanAction();
-	}
-	
-	private void restoreLastSession() {
-		if (node.getChildren() == null) return;
-		for (Node child: node.getChildren().values()) {
-			Value isServ = child.getAttribute("Is Serial");
-			boolean isSer;
-			if (isServ == null) {
-				child.setAttribute("Is Serial", new Value(false));
-				isSer = false;
-			} else {
-				isSer = isServ.getBool();
-			}
-			if (isSer) {
-				checkAttribute(child, "COM Port", new Value("COM3"));
-				checkAttribute(child, "Baud Rate", new Value(9600));
-				checkAttribute(child, "Data Bits", new Value(8));
-				checkAttribute(child, "Stop Bits", new Value(1));
-				checkAttribute(child, "Parity", new Value(0));
-
-			} else {
-				checkAttribute(child, "Host", new Value("0.0.0.0"));
-				checkAttribute(child, "Port", new Value(20000));
-			}
-			checkAttribute(child, "Master Address", new Value(0));
-			checkAttribute(child, "Outstation Address", new Value(0));
-			checkAttribute(child, "Event Polling Interval", new Value(5000));
-			checkAttribute(child, "Static Polling Interval", new Value(25000));
-
-			DnpOutstation os = new DnpOutstation(this, child);
-			os.restoreLastSession();
-		}
-	}
-	
-	private static void checkAttribute(Node n, String attributeName, Value defaultValue) {
-		Value val = n.getAttribute(attributeName);
-		if (val == null) n.setAttribute(attributeName,  defaultValue);
-	}
-	
-	private void makePortScanAction() {
-		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
-			public void handle(ActionResult event) {
-				doPortScan();
-			}
-		});
-		node.createChild("scan for serial ports").setAction(act).build().setSerializable(false);
-	}
-	
-	private void doPortScan() {
-		makeAddOutstationAction(true);
-		
-		for (DnpOutstation serDo: serialOutstations) {
-			serDo.makeEditAction();
-		}
-	}
-	
-	public Set<String> getCOMPorts() {
-		Set<String> ports = new HashSet<String>();
-		try {
-			for (CommPortProxy p: SerialUtils.getCommPorts()) {
-				ports.add(p.getId());
-			}
-		} catch (CommPortConfigException e) {
-			LOGGER.debug("" ,e);
-		}
-		return ports;
-	}
-	
-	private void makeAddOutstationAction(boolean serial) {
-		if (serial) {
-			Action act = new Action(Permission.READ, new Handler<ActionResult>() {
-				public void handle(ActionResult event) {
-					addOutstation(event);
-				}
-			});
-			act.addParameter(new Parameter("Name", ValueType.STRING));
-			
-			Set<String> portids = getCOMPorts();
-			if (portids.size() > 0) {
-				act.addParameter(new Parameter("COM Port", ValueType.makeEnum(portids)));
-				act.addParameter(new Parameter("COM Port (manual entry)", ValueType.STRING));
-			} else {
-				act.addParameter(new Parameter("COM Port", ValueType.STRING));
-			}
-			
-			act.addParameter(new Parameter("Baud Rate", ValueType.NUMBER, new Value(9600)));
-			act.addParameter(new Parameter("Data Bits", ValueType.NUMBER, new Value(8)));
-			act.addParameter(new Parameter("Stop Bits", ValueType.NUMBER, new Value(1)));
-			act.addParameter(new Parameter("Parity", ValueType.NUMBER, new Value(0)));
-			act.addParameter(new Parameter("Master Address", ValueType.NUMBER, new Value(17)));
-			act.addParameter(new Parameter("Outstation Address", ValueType.NUMBER, new Value(4)));
-			act.addParameter(new Parameter("Event Polling Interval", ValueType.NUMBER, new Value(5)));
-			act.addParameter(new Parameter("Static Polling Interval", ValueType.NUMBER, new Value(25)));
-			
-			Node anode = node.getChild("add serial outstation");
-			if (anode == null) node.createChild("add serial outstation").setAction(act).build().setSerializable(false);
-			else anode.setAction(act);
-		} else {
-			Action act = new Action(Permission.READ, new Handler<ActionResult>() {
-				public void handle(ActionResult event) {
-					addOutstation(event);
-				}
-			});
-			act.addParameter(new Parameter("Name", ValueType.STRING));
-			act.addParameter(new Parameter("Host", ValueType.STRING, new Value("0.0.0.0")));
-			act.addParameter(new Parameter("Port", ValueType.NUMBER, new Value(20000)));
-			act.addParameter(new Parameter("Master Address", ValueType.NUMBER, new Value(17)));
-			act.addParameter(new Parameter("Outstation Address", ValueType.NUMBER, new Value(4)));
-			act.addParameter(new Parameter("Event Polling Interval", ValueType.NUMBER, new Value(5)));
-			act.addParameter(new Parameter("Static Polling Interval", ValueType.NUMBER, new Value(25)));
-			
-			Node anode = node.getChild("add ip outstation");
-			if (anode == null) node.createChild("add ip outstation").setAction(act).build().setSerializable(false);
-			else anode.setAction(act);
-		}
-		
-	}
-	
-	private void addOutstation(ActionResult event) {
-		String name = event.getParameter("Name", ValueType.STRING).getString();
-		boolean isSer = (event.getParameter("Host") == null);
-		
-		Node onode = node.createChild(name).build();
-		onode.setAttribute("Is Serial", new Value(isSer));
-		
-		if (isSer) {
-			String com;
-			Value customPort = event.getParameter("COM Port (manual entry)");
-			if (customPort != null && customPort.getString() != null && customPort.getString().trim().length() > 0) {
-				com = customPort.getString();
-			} else {
-				com = event.getParameter("COM Port").getString();
-			}
-			int baud = event.getParameter("Baud Rate", ValueType.NUMBER).getNumber().intValue();
-			int dbits = event.getParameter("Data Bits", ValueType.NUMBER).getNumber().intValue();
-			int sbits = event.getParameter("Stop Bits", ValueType.NUMBER).getNumber().intValue();
-			int parity = event.getParameter("Parity", ValueType.NUMBER).getNumber().intValue();
-		
-			onode.setAttribute("COM Port", new Value(com));
-			onode.setAttribute("Baud Rate", new Value(baud));
-			onode.setAttribute("Data Bits", new Value(dbits));
-			onode.setAttribute("Stop Bits", new Value(sbits));
-			onode.setAttribute("Parity", new Value(parity));
-		} else {
-			String host = event.getParameter("Host", ValueType.STRING).getString();
-			int port = event.getParameter("Port", ValueType.NUMBER).getNumber().intValue();
-			
-			onode.setAttribute("Host", new Value(host));
-			onode.setAttribute("Port", new Value(port));
-		}
-		
-		int maddr = event.getParameter("Master Address", ValueType.NUMBER).getNumber().intValue();
-		int oaddr = event.getParameter("Outstation Address", ValueType.NUMBER).getNumber().intValue();
-		long interval = (long) (event.getParameter("Event Polling Interval", ValueType.NUMBER).getNumber().doubleValue() * 1000);
-		long sinterval = (long) (event.getParameter("Static Polling Interval", ValueType.NUMBER).getNumber().doubleValue() * 1000);
-		
-		onode.setAttribute("Master Address", new Value(maddr));
-		onode.setAttribute("Outstation Address", new Value(oaddr));
-		onode.setAttribute("Event Polling Interval", new Value(interval));
-		onode.setAttribute("Static Polling Interval", new Value(sinterval));
-		DnpOutstation os = new DnpOutstation(this, onode);
-		os.init();
-	}
-
-}
+package dnp3;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.Permission;
+import org.dsa.iot.dslink.node.actions.Action;
+import org.dsa.iot.dslink.node.actions.ActionResult;
+import org.dsa.iot.dslink.node.actions.Parameter;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.serotonin.io.serial.CommPortConfigException;
+import com.serotonin.io.serial.CommPortProxy;
+import com.serotonin.io.serial.SerialUtils;
+
+public class DnpLink {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(DnpLink.class);
+	
+	static final String SCHEDULER_NODE = "Poll Scheduler";
+	
+	private Node node;
+	private Node schedNode;
+	private PollScheduler pollScheduler;
+	private Node journalNode;
+	private UpdateJournal journal;
+	Set<DnpOutstation> serialOutstations = new HashSet<DnpOutstation>();
+	final Set<DnpOutstation> outstations = Collections.newSetFromMap(new ConcurrentHashMap<DnpOutstation, Boolean>());
+	private final Map<String, DnpChannel> channels = new HashMap<String, DnpChannel>();
+	private final Set<DnpChannel> startupChannels = new HashSet<DnpChannel>();
+	private boolean restoring = false;
+	private long restoreStart;
+	private Node startupNode;
+	
+	DnpLink(Node node) {
+		this.node = node;
+	}
+	
+	/**
+	 * A link on a scheduler of the caller's, with no scheduler or journal nodes, for the
+	 * benchmarks.
+	 */
+	DnpLink(Node node, PollScheduler pollScheduler) {
+		this.node = node;
+		this.pollScheduler = pollScheduler;
+		journal = new UpdateJournal(pollScheduler);
+	}
+	
+	public static DnpLink start(Node node) {
+		DnpLink dl = new DnpLink(node);
+		dl.init();
+		return dl;
+	}
+
+	private void init() {
+		initPollScheduler();
+		initJournal();
+		restoreLastSession();
+		
+		makeAddOutstationAction(false);
+		makeAddOutstationAction(true);
+		makePortScanAction();
+		SnapshotStream.makeAction(node, pollScheduler, outstations);
+	}
+	
+	/**
+	 * Only builds the node tree and queues each channel's first connect, so it returns
+	 * quickly. Connects then run in parallel on the connect pool, and "Startup Time" is set
+	 * once every restored channel has made its first attempt.
+	 */
+	private void restoreLastSession() {
+		synchronized (this) {
+			restoring = true;
+			restoreStart = System.currentTimeMillis();
+		}
+		try {
+			restoreOutstations();
+		} finally {
+			synchronized (this) {
+				restoring = false;
+				for (DnpChannel channel: channels.values()) {
+					if (!channel.isAttempted()) startupChannels.add(channel);
+				}
+				checkStartupDone();
+			}
+		}
+	}
+	
+	private void restoreOutstations() {
+		if (node.getChildren() == null) return;
+		for (Node child: node.getChildren().values()) {
+			if (child == schedNode || child == journalNode) continue;
+			Value isServ = child.getAttribute("Is Serial");
+			boolean isSer;
+			if (isServ == null) {
+				child.setAttribute("Is Serial", new Value(false));
+				isSer = false;
+			} else {
+				isSer = isServ.getBool();
+			}
+			if (isSer) {
+				checkAttribute(child, "COM Port", new Value("COM3"));
+				checkAttribute(child, "Baud Rate", new Value(9600));
+				checkAttribute(child, "Data Bits", new Value(8));
+				checkAttribute(child, "Stop Bits", new Value(1));
+				checkAttribute(child, "Parity", new Value(0));
+
+			} else {
+				checkAttribute(child, "Host", new Value("0.0.0.0"));
+				checkAttribute(child, "Port", new Value(20000));
+			}
+			checkAttribute(child, "Master Address", new Value(0));
+			checkAttribute(child, "Outstation Address", new Value(0));
+			// older versions had one interval for all event classes
+			Value eventInterval = child.getAttribute("Event Polling Interval");
+			for (String attr: DnpOutstation.CLASS_INTERVAL_ATTRS) {
+				checkAttribute(child, attr, eventInterval != null ? eventInterval : new Value(5000));
+			}
+			if (eventInterval != null) child.removeAttribute("Event Polling Interval");
+			// outstations saved without one keep the default of older versions; new ones get 10 minutes
+			checkAttribute(child, "Static Polling Interval", new Value(25000));
+			checkAttribute(child, SubscribedPoints.GAP_ATTR, new Value(16));
+			checkAttribute(child, SubscribedPoints.FULL_READ_ATTR, new Value(6));
+			checkAttribute(child, "Unsolicited", new Value(false));
+			checkAttribute(child, DnpOutstation.LAZY_ATTR, new Value(false));
+			checkAttribute(child, ControlBatch.SBO_ATTR, new Value(false));
+			checkAttribute(child, ControlBatch.READBACK_ATTR, new Value(ControlBatch.READBACK_RANGE));
+
+			DnpOutstation os = new DnpOutstation(this, child);
+			os.restoreLastSession();
+		}
+	}
+	
+	PollScheduler getPollScheduler() {
+		return pollScheduler;
+	}
+	
+	UpdateJournal getJournal() {
+		return journal;
+	}
+	
+	/**
+	 * Called as the broker connection comes and goes, to buffer point updates while it is
+	 * down and replay them once it is back.
+	 */
+	public void setConnected(boolean connected) {
+		journal.setConnected(connected);
+	}
+	
+	/**
+	 * Attaches the outstation to the channel for its COM port or host:port, creating the
+	 * channel if this is the first outstation on it.
+	 * @return the channel, or null if the outstation conflicts with one already attached
+	 */
+	synchronized DnpChannel attachChannel(DnpOutstation os) {
+		String key = DnpChannel.keyFor(os.getNode(), os.isSerial());
+		DnpChannel channel = channels.get(key);
+		if (channel == null) {
+			channel = new DnpChannel(this, key, os.isSerial());
+			channels.put(key, channel);
+		}
+		String conflict = channel.attach(os);
+		if (conflict != null) {
+			if (channel.size() == 0) channels.remove(key);
+			os.setStatus(conflict);
+			return null;
+		}
+		return channel;
+	}
+	
+	synchronized void detachChannel(DnpOutstation os, DnpChannel channel) {
+		if (channel.detach(os)) {
+			channels.remove(channel.key);
+			startupChannels.remove(channel);
+			checkStartupDone();
+		}
+	}
+	
+	synchronized void connectAttempted(DnpChannel channel) {
+		if (startupChannels.remove(channel)) checkStartupDone();
+	}
+	
+	private void checkStartupDone() {
+		if (restoring || !startupChannels.isEmpty() || startupNode == null) return;
+		long elapsed = System.currentTimeMillis() - restoreStart;
+		LOGGER.info("Restored " + channels.size() + " connections in " + elapsed + " ms");
+		startupNode.setValue(new Value(elapsed));
+		startupNode = null;
+	}
+	
+	void initPollScheduler() {
+		schedNode = node.getChild(SCHEDULER_NODE);
+		if (schedNode == null) schedNode = node.createChild(SCHEDULER_NODE).build();
+		checkAttribute(schedNode, "Threads", new Value(8));
+		checkAttribute(schedNode, "Connect Threads", new Value(16));
+		
+		pollScheduler = new PollScheduler(schedNode.getAttribute("Threads").getNumber().intValue(),
+				schedNode.getAttribute("Connect Threads").getNumber().intValue());
+		journal = new UpdateJournal(pollScheduler);
+		
+		startupNode = makeStatNode("Startup Time");
+		final Node threadsNode = makeStatNode("Threads");
+		final Node overrunsNode = makeStatNode("Overruns");
+		final Node skippedNode = makeStatNode("Skipped Cycles");
+		final Node queuedNode = makeStatNode("Queued Tasks");
+		final Node requestsNode = makeStatNode("Queued Requests");
+		final Node connectsNode = makeStatNode("Queued Connects");
+		final Node utilNode = makeStatNode("Thread Utilization %");
+		final Runnable statsTask = new Runnable() {
+			private long lastBusy = 0;
+			private long lastTime = System.nanoTime();
+			
+			public void run() {
+				threadsNode.setValue(new Value(pollScheduler.getThreads()));
+				overrunsNode.setValue(new Value(pollScheduler.getOverruns()));
+				skippedNode.setValue(new Value(pollScheduler.getSkipped()));
+				queuedNode.setValue(new Value(pollScheduler.getQueuedTasks()));
+				requestsNode.setValue(new Value(getQueuedRequests()));
+				connectsNode.setValue(new Value(pollScheduler.getQueuedConnects()));
+				long busy = pollScheduler.getBusyNanos();
+				long now = System.nanoTime();
+				double capacity = (double) (now - lastTime) * pollScheduler.getThreads();
+				if (capacity > 0) utilNode.setValue(new Value(Math.round(1000 * (busy - lastBusy) / capacity) / 10.0));
+				lastBusy = busy;
+				lastTime = now;
+			}
+		};
+		// on a worker, since counting queued requests takes the link's lock
+		pollScheduler.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				pollScheduler.execute(statsTask);
+			}
+		}, 0, 5000);
+		
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				int threads = event.getParameter("Threads", ValueType.NUMBER).getNumber().intValue();
+				threads = Math.max(1, threads);
+				schedNode.setAttribute("Threads", new Value(threads));
+				pollScheduler.setThreads(threads);
+				int connectThreads = event.getParameter("Connect Threads", ValueType.NUMBER).getNumber().intValue();
+				connectThreads = Math.max(1, connectThreads);
+				schedNode.setAttribute("Connect Threads", new Value(connectThreads));
+				pollScheduler.setConnectThreads(connectThreads);
+			}
+		});
+		act.addParameter(new Parameter("Threads", ValueType.NUMBER, schedNode.getAttribute("Threads")));
+		act.addParameter(new Parameter("Connect Threads", ValueType.NUMBER, schedNode.getAttribute("Connect Threads")));
+		Node anode = schedNode.getChild("edit");
+		if (anode == null) schedNode.createChild("edit").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+	
+	private void initJournal() {
+		journalNode = node.getChild(UpdateJournal.NODE);
+		if (journalNode == null) journalNode = node.createChild(UpdateJournal.NODE).build();
+		checkAttribute(journalNode, UpdateJournal.ENABLED_ATTR, new Value(false));
+		checkAttribute(journalNode, UpdateJournal.SIZE_ATTR, new Value(64));
+		checkAttribute(journalNode, UpdateJournal.REPLAY_ATTR, new Value(UpdateJournal.REPLAY_VALUES));
+		configureJournal();
+		
+		final Node bufferedNode = makeStatNode(journalNode, "Buffered Updates");
+		final Node evictedNode = makeStatNode(journalNode, "Evicted Updates");
+		final Runnable statsTask = new Runnable() {
+			public void run() {
+				journal.flush();
+				bufferedNode.setValue(new Value(journal.getBuffered()));
+				evictedNode.setValue(new Value(journal.getEvicted()));
+			}
+		};
+		pollScheduler.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				pollScheduler.execute(statsTask);
+			}
+		}, 0, 5000);
+		
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				journalNode.setAttribute(UpdateJournal.ENABLED_ATTR, event.getParameter(UpdateJournal.ENABLED_ATTR, ValueType.BOOL));
+				int size = event.getParameter(UpdateJournal.SIZE_ATTR, ValueType.NUMBER).getNumber().intValue();
+				journalNode.setAttribute(UpdateJournal.SIZE_ATTR, new Value(Math.min(2047, Math.max(2, size))));
+				journalNode.setAttribute(UpdateJournal.REPLAY_ATTR, event.getParameter(UpdateJournal.REPLAY_ATTR));
+				configureJournal();
+			}
+		});
+		act.addParameter(new Parameter(UpdateJournal.ENABLED_ATTR, ValueType.BOOL, journalNode.getAttribute(UpdateJournal.ENABLED_ATTR)));
+		act.addParameter(new Parameter(UpdateJournal.SIZE_ATTR, ValueType.NUMBER, journalNode.getAttribute(UpdateJournal.SIZE_ATTR)));
+		act.addParameter(new Parameter(UpdateJournal.REPLAY_ATTR, ValueType.makeEnum(UpdateJournal.REPLAY_VALUES, UpdateJournal.REPLAY_HISTORY),
+				journalNode.getAttribute(UpdateJournal.REPLAY_ATTR)));
+		Node anode = journalNode.getChild("edit");
+		if (anode == null) journalNode.createChild("edit").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+	
+	private void configureJournal() {
+		journal.configure(journalNode.getAttribute(UpdateJournal.ENABLED_ATTR).getBool(),
+				journalNode.getAttribute(UpdateJournal.SIZE_ATTR).getNumber().intValue(),
+				UpdateJournal.REPLAY_HISTORY.equals(journalNode.getAttribute(UpdateJournal.REPLAY_ATTR).getString()));
+	}
+	
+	/**
+	 * @return the number of requests waiting in every outstation's queue
+	 */
+	private synchronized int getQueuedRequests() {
+		int n = 0;
+		for (DnpChannel channel: channels.values()) {
+			n += channel.getQueuedRequests();
+		}
+		return n;
+	}
+	
+	private Node makeStatNode(String name) {
+		return makeStatNode(schedNode, name);
+	}
+	
+	private static Node makeStatNode(Node parent, String name) {
+		Node n = parent.getChild(name);
+		if (n == null) n = parent.createChild(name).setValueType(ValueType.NUMBER).setValue(new Value(0)).build();
+		n.setSerializable(false);
+		return n;
+	}
+	
+	private static void checkAttribute(Node n, String attributeName, Value defaultValue) {
+		Value val = n.getAttribute(attributeName);
+		if (val == null) n.setAttribute(attributeName,  defaultValue);
+	}
+	
+	private void makePortScanAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				doPortScan();
+			}
+		});
+		node.createChild("scan for serial ports").setAction(act).build().setSerializable(false);
+	}
+	
+	private void doPortScan() {
+		makeAddOutstationAction(true);
+		
+		for (DnpOutstation serDo: serialOutstations) {
+			serDo.makeEditAction();
+		}
+	}
+	
+	public Set<String> getCOMPorts() {
+		Set<String> ports = new HashSet<String>();
+		try {
+			for (CommPortProxy p: SerialUtils.getCommPorts()) {
+				ports.add(p.getId());
+			}
+		} catch (CommPortConfigException e) {
+			LOGGER.debug("" ,e);
+		}
+		return ports;
+	}
+	
+	private void makeAddOutstationAction(boolean serial) {
+		if (serial) {
+			Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+				public void handle(ActionResult event) {
+					addOutstation(event);
+				}
+			});
+			act.addParameter(new Parameter("Name", ValueType.STRING));
+			
+			Set<String> portids = getCOMPorts();
+			if (portids.size() > 0) {
+				act.addParameter(new Parameter("COM Port", ValueType.makeEnum(portids)));
+				act.addParameter(new Parameter("COM Port (manual entry)", ValueType.STRING));
+			} else {
+				act.addParameter(new Parameter("COM Port", ValueType.STRING));
+			}
+			
+			act.addParameter(new Parameter("Baud Rate", ValueType.NUMBER, new Value(9600)));
+			act.addParameter(new Parameter("Data Bits", ValueType.NUMBER, new Value(8)));
+			act.addParameter(new Parameter("Stop Bits", ValueType.NUMBER, new Value(1)));
+			act.addParameter(new Parameter("Parity", ValueType.NUMBER, new Value(0)));
+			act.addParameter(new Parameter("Master Address", ValueType.NUMBER, new Value(17)));
+			act.addParameter(new Parameter("Outstation Address", ValueType.NUMBER, new Value(4)));
+			for (String attr: DnpOutstation.CLASS_INTERVAL_ATTRS) {
+				act.addParameter(new Parameter(attr, ValueType.NUMBER, new Value(5)));
+			}
+			act.addParameter(new Parameter("Static Polling Interval", ValueType.NUMBER, new Value(600)));
+			act.addParameter(new Parameter(SubscribedPoints.GAP_ATTR, ValueType.NUMBER, new Value(16)));
+			act.addParameter(new Parameter(SubscribedPoints.FULL_READ_ATTR, ValueType.NUMBER, new Value(6)));
+			act.addParameter(new Parameter("Unsolicited", ValueType.BOOL, new Value(false)));
+			act.addParameter(new Parameter(DnpOutstation.LAZY_ATTR, ValueType.BOOL, new Value(false)));
+			act.addParameter(new Parameter(ControlBatch.SBO_ATTR, ValueType.BOOL, new Value(false)));
+			act.addParameter(new Parameter(ControlBatch.READBACK_ATTR, ValueType.makeEnum(ControlBatch.READBACK_RANGE, ControlBatch.READBACK_EVENTS), new Value(ControlBatch.READBACK_RANGE)));
+			
+			Node anode = node.getChild("add serial outstation");
+			if (anode == null) node.createChild("add serial outstation").setAction(act).build().setSerializable(false);
+			else anode.setAction(act);
+		} else {
+			Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+				public void handle(ActionResult event) {
+					addOutstation(event);
+				}
+			});
+			act.addParameter(new Parameter("Name", ValueType.STRING));
+			act.addParameter(new Parameter("Host", ValueType.STRING, new Value("0.0.0.0")));
+			act.addParameter(new Parameter("Port", ValueType.NUMBER, new Value(20000)));
+			act.addParameter(new Parameter("Master Address", ValueType.NUMBER, new Value(17)));
+			act.addParameter(new Parameter("Outstation Address", ValueType.NUMBER, new Value(4)));
+			for (String attr: DnpOutstation.CLASS_INTERVAL_ATTRS) {
+				act.addParameter(new Parameter(attr, ValueType.NUMBER, new Value(5)));
+			}
+			act.addParameter(new Parameter("Static Polling Interval", ValueType.NUMBER, new Value(600)));
+			act.addParameter(new Parameter(SubscribedPoints.GAP_ATTR, ValueType.NUMBER, new Value(16)));
+			act.addParameter(new Parameter(SubscribedPoints.FULL_READ_ATTR, ValueType.NUMBER, new Value(6)));
+			act.addParameter(new Parameter("Unsolicited", ValueType.BOOL, new Value(false)));
+			act.addParameter(new Parameter(DnpOutstation.LAZY_ATTR, ValueType.BOOL, new Value(false)));
+			act.addParameter(new Parameter(ControlBatch.SBO_ATTR, ValueType.BOOL, new Value(false)));
+			act.addParameter(new Parameter(ControlBatch.READBACK_ATTR, ValueType.makeEnum(ControlBatch.READBACK_RANGE, ControlBatch.READBACK_EVENTS), new Value(ControlBatch.READBACK_RANGE)));
+			
+			Node anode = node.getChild("add ip outstation");
+			if (anode == null) node.createChild("add ip outstation").setAction(act).build().setSerializable(false);
+			else anode.setAction(act);
+		}
+		
+	}
+	
+	private void addOutstation(ActionResult event) {
+		String name = event.getParameter("Name", ValueType.STRING).getString();
+		boolean isSer = (event.getParameter("Host") == null);
+		
+		Node onode = node.createChild(name).build();
+		onode.setAttribute("Is Serial", new Value(isSer));
+		
+		if (isSer) {
+			String com;
+			Value customPort = event.getParameter("COM Port (manual entry)");
+			if (customPort != null && customPort.getString() != null && customPort.getString().trim().length() > 0) {
+				com = customPort.getString();
+			} else {
+				com = event.getParameter("COM Port").getString();
+			}
+			int baud = event.getParameter("Baud Rate", ValueType.NUMBER).getNumber().intValue();
+			int dbits = event.getParameter("Data Bits", ValueType.NUMBER).getNumber().intValue();
+			int sbits = event.getParameter("Stop Bits", ValueType.NUMBER).getNumber().intValue();
+			int parity = event.getParameter("Parity", ValueType.NUMBER).getNumber().intValue();
+		
+			onode.setAttribute("COM Port", new Value(com));
+			onode.setAttribute("Baud Rate", new Value(baud));
+			onode.setAttribute("Data Bits", new Value(dbits));
+			onode.setAttribute("Stop Bits", new Value(sbits));
+			onode.setAttribute("Parity", new Value(parity));
+		} else {
+			String host = event.getParameter("Host", ValueType.STRING).getString();
+			int port = event.getParameter("Port", ValueType.NUMBER).getNumber().intValue();
+			
+			onode.setAttribute("Host", new Value(host));
+			onode.setAttribute("Port", new Value(port));
+		}
+		
+		int maddr = event.getParameter("Master Address", ValueType.NUMBER).getNumber().intValue();
+		int oaddr = event.getParameter("Outstation Address", ValueType.NUMBER).getNumber().intValue();
+		long sinterval = (long) (event.getParameter("Static Polling Interval", ValueType.NUMBER).getNumber().doubleValue() * 1000);
+		
+		onode.setAttribute("Master Address", new Value(maddr));
+		onode.setAttribute("Outstation Address", new Value(oaddr));
+		for (String attr: DnpOutstation.CLASS_INTERVAL_ATTRS) {
+			long interval = (long) (event.getParameter(attr, ValueType.NUMBER).getNumber().doubleValue() * 1000);
+			onode.setAttribute(attr, new Value(interval));
+		}
+		onode.setAttribute("Static Polling Interval", new Value(sinterval));
+		onode.setAttribute(SubscribedPoints.GAP_ATTR, event.getParameter(SubscribedPoints.GAP_ATTR, ValueType.NUMBER));
+		onode.setAttribute(SubscribedPoints.FULL_READ_ATTR, event.getParameter(SubscribedPoints.FULL_READ_ATTR, ValueType.NUMBER));
+		onode.setAttribute("Unsolicited", event.getParameter("Unsolicited", ValueType.BOOL));
+		onode.setAttribute(DnpOutstation.LAZY_ATTR, event.getParameter(DnpOutstation.LAZY_ATTR, ValueType.BOOL));
+		onode.setAttribute(ControlBatch.SBO_ATTR, event.getParameter(ControlBatch.SBO_ATTR, ValueType.BOOL));
+		onode.setAttribute(ControlBatch.READBACK_ATTR, event.getParameter(ControlBatch.READBACK_ATTR));
+		DnpOutstation os = new DnpOutstation(this, onode);
+		os.init();
+	}
+
+}
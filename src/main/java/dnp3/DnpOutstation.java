@@ -1,526 +1,1433 @@
-package dnp3;
-
-import java.util.HashMap;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-
-import org.dsa.iot.dslink.node.Node;
-import org.dsa.iot.dslink.node.Permission;
-import org.dsa.iot.dslink.node.Writable;
-import org.dsa.iot.dslink.node.actions.Action;
-import org.dsa.iot.dslink.node.actions.ActionResult;
-import org.dsa.iot.dslink.node.actions.Parameter;
-import org.dsa.iot.dslink.node.value.Value;
-import org.dsa.iot.dslink.node.value.ValuePair;
-import org.dsa.iot.dslink.node.value.ValueType;
-import org.dsa.iot.dslink.util.Objects;
-import org.dsa.iot.dslink.util.handler.Handler;
-import org.dsa.iot.dslink.util.json.JsonObject;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import br.org.scadabr.dnp34j.master.common.AppFeatures;
-import br.org.scadabr.dnp34j.master.common.utils.Buffer;
-import br.org.scadabr.dnp34j.master.session.DNPUser;
-import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
-import br.org.scadabr.dnp34j.master.session.config.EthernetParameters;
-import br.org.scadabr.dnp34j.master.session.config.SerialParameters;
-import br.org.scadabr.dnp34j.master.session.database.DataBuffer;
-import br.org.scadabr.dnp34j.master.session.database.DataElement;
-import br.org.scadabr.dnp34j.master.session.database.Database;
-
-public class DnpOutstation {
-	
-	private static final Logger LOGGER = LoggerFactory.getLogger(DnpOutstation.class);
-	
-	private DnpLink link;
-	private Node node;
-	private DNPUser user;
-	private boolean isSerial;
-	
-	private Node statnode = null;
-	
-	private Node ainode;
-	private Node binode;
-	private Node dinode;
-	private Node cinode;
-	private Node aonode;
-	private Node bonode;
-	
-	
-	private int pollsPerDiscover = 1;
-	private int pollsSinceLastDiscover = 0;
-	
-	private Set<Node> subscribed = ConcurrentHashMap.newKeySet();
-	ScheduledFuture<?> future;
-	
-	DnpOutstation(DnpLink link, Node node) {
-		this.link = link;
-		this.node = node;
-		isSerial = node.getAttribute("Is Serial").getBool();
-		if (isSerial) link.serialOutstations.add(this);
-	}
-	
-	void init() {
-		
-		if (statnode == null) {
-			statnode = node.createChild("Status").setValueType(ValueType.STRING).setValue(new Value("Initializing")).build();
-		} else {
-			statnode.setValue(new Value("Initializing"));
-		}
-		
-		int maddr = node.getAttribute("Master Address").getNumber().intValue();
-		int oaddr = node.getAttribute("Outstation Address").getNumber().intValue();
-		
-		DNPConfig configuration;
-		if (isSerial) {
-			String com = node.getAttribute("COM Port").getString();
-			int baud = node.getAttribute("Baud Rate").getNumber().intValue();
-			int dbits = node.getAttribute("Data Bits").getNumber().intValue();
-			int sbits = node.getAttribute("Stop Bits").getNumber().intValue();
-			int parity = node.getAttribute("Parity").getNumber().intValue();
-			
-			SerialParameters params = new SerialParameters(com, baud, dbits, sbits, parity);
-			configuration = new DNPConfig(params, maddr, oaddr);
-		} else {
-			String host = node.getAttribute("Host").getString();
-			int port = node.getAttribute("Port").getNumber().intValue();
-			
-			EthernetParameters params = new EthernetParameters(host, port);
-	        configuration = new DNPConfig(params, maddr, oaddr);
-		}
-		
-        user = new DNPUser(configuration);
-        try {
-			user.init();
-			statnode.setValue(new Value("Connected"));
-		} catch (Exception e) {
-			statnode.setValue(new Value("Failed to Connect"));
-			LOGGER.debug("", e);
-		}
-        
-        if (user.getDatabase() != null) {
-	        user.getDatabase().setCallback(new Database.Handler() {
-				public void dataChanged(DataElement element) {
-					updateValue(element);
-				}
-			});
-        }
-        
-        long interval = node.getAttribute("Event Polling Interval").getNumber().longValue();
-        long sinterval = node.getAttribute("Static Polling Interval").getNumber().longValue();
-        if (sinterval < interval) {
-        	node.setAttribute("Event Polling Interval", new Value(sinterval));
-        	pollsPerDiscover = 1;
-        } else {
-        	pollsPerDiscover = (int) (sinterval/interval);
-        }
-        
-        makeRemoveAction();
-        makeEditAction();
-        makeDiscoverAction();
-	}
-	
-	void restoreLastSession() {
-		node.clearChildren();
-		init();
-	}
-	
-	private void makeRemoveAction() {
-		Action act = new Action(Permission.READ, new Handler<ActionResult>() { 
-			public void handle(ActionResult event) {
-				remove();
-			}
-		});
-		Node anode = node.getChild("remove");
-		if (anode == null) node.createChild("remove").setAction(act).build().setSerializable(false);
-		else anode.setAction(act);
-	}
-	
-	private void remove() {
-		stop();
-		node.clearChildren();
-		node.getParent().removeChild(node);
-		link.serialOutstations.remove(this);
-	}
-	
-	private void stop() {
-		if (user != null) {
-			try {
-				user.stop();
-				statnode.setValue(new Value("Stopped"));
-			} catch (Exception e) {
-				LOGGER.debug("", e);
-			} 
-		}
-	}
-	
-	void makeEditAction() {
-		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
-			public void handle(ActionResult event) {
-				edit(event);
-			}
-		});
-
-		act.addParameter(new Parameter("Name", ValueType.STRING, new Value(node.getName())));
-		if (isSerial) {
-			Set<String> portids = link.getCOMPorts();
-			if (portids.size() > 0) {
-				if (portids.contains(node.getAttribute("COM Port").getString())) {
-					act.addParameter(new Parameter("COM Port", ValueType.makeEnum(portids), node.getAttribute("COM Port")));
-					act.addParameter(new Parameter("COM Port (manual entry)", ValueType.STRING));
-				} else {
-					act.addParameter(new Parameter("COM Port", ValueType.makeEnum(portids)));
-					act.addParameter(new Parameter("COM Port (manual entry)", ValueType.STRING, node.getAttribute("COM Port")));
-				}
-			} else {
-				act.addParameter(new Parameter("COM Port", ValueType.STRING, node.getAttribute("COM Port")));
-			}
-			act.addParameter(new Parameter("Baud Rate", ValueType.NUMBER, node.getAttribute("Baud Rate")));
-			act.addParameter(new Parameter("Data Bits", ValueType.NUMBER, node.getAttribute("Data Bits")));
-			act.addParameter(new Parameter("Stop Bits", ValueType.NUMBER, node.getAttribute("Stop Bits")));
-			act.addParameter(new Parameter("Parity", ValueType.NUMBER, node.getAttribute("Parity")));
-		} else {
-			act.addParameter(new Parameter("Host", ValueType.STRING, node.getAttribute("Host")));
-			act.addParameter(new Parameter("Port", ValueType.NUMBER, node.getAttribute("Port")));
-		}
-		act.addParameter(new Parameter("Master Address", ValueType.NUMBER, node.getAttribute("Master Address")));
-		act.addParameter(new Parameter("Outstation Address", ValueType.NUMBER, node.getAttribute("Outstation Address")));
-		double defint = node.getAttribute("Event Polling Interval").getNumber().doubleValue() / 1000;
-		act.addParameter(new Parameter("Event Polling Interval", ValueType.NUMBER, new Value(defint)));
-		double defsint = node.getAttribute("Static Polling Interval").getNumber().doubleValue() / 1000;
-		act.addParameter(new Parameter("Static Polling Interval", ValueType.NUMBER, new Value(defsint)));
-		Node anode = node.getChild("edit");
-		if (anode == null) node.createChild("edit").setAction(act).build().setSerializable(false);
-		else anode.setAction(act);
-	}
-	
-	private void edit(ActionResult event) {
-		String name = event.getParameter("Name", ValueType.STRING).getString();
-		
-		if (isSerial) {
-			String com;
-			Value customPort = event.getParameter("COM Port (manual entry)");
-			if (customPort != null && customPort.getString() != null && customPort.getString().trim().length() > 0) {
-				com = customPort.getString();
-			} else {
-				com = event.getParameter("COM Port").getString();
-			}
-			int baud = event.getParameter("Baud Rate", ValueType.NUMBER).getNumber().intValue();
-			int dbits = event.getParameter("Data Bits", ValueType.NUMBER).getNumber().intValue();
-			int sbits = event.getParameter("Stop Bits", ValueType.NUMBER).getNumber().intValue();
-			int parity = event.getParameter("Parity", ValueType.NUMBER).getNumber().intValue();
-		
-			node.setAttribute("COM Port", new Value(com));
-			node.setAttribute("Baud Rate", new Value(baud));
-			node.setAttribute("Data Bits", new Value(dbits));
-			node.setAttribute("Stop Bits", new Value(sbits));
-			node.setAttribute("Parity", new Value(parity));
-		} else {
-			String host = event.getParameter("Host", ValueType.STRING).getString();
-			int port = event.getParameter("Port", ValueType.NUMBER).getNumber().intValue();
-		
-			node.setAttribute("Host", new Value(host));
-			node.setAttribute("Port", new Value(port));
-		}
-		
-		int maddr = event.getParameter("Master Address", ValueType.NUMBER).getNumber().intValue();
-		int oaddr = event.getParameter("Outstation Address", ValueType.NUMBER).getNumber().intValue();
-		long interval = (long) (event.getParameter("Event Polling Interval", ValueType.NUMBER).getNumber().doubleValue() * 1000);
-		long sinterval = (long) (event.getParameter("Static Polling Interval", ValueType.NUMBER).getNumber().doubleValue() * 1000);
-		
-		node.setAttribute("Master Address", new Value(maddr));
-		node.setAttribute("Outstation Address", new Value(oaddr));
-		node.setAttribute("Event Polling Interval", new Value(interval));
-		node.setAttribute("Static Polling Interval", new Value(sinterval));
-		
-		if (!node.getName().equals(name)) {
-			rename(name);
-		} else {
-			stop();
-			init();
-		}
-	}
-	
-	private void rename(String newname) {
-		duplicate(newname);
-		remove();
-	}
-	
-	private void duplicate(String name) {
-		JsonObject jobj = link.copySerializer.serialize();
-		JsonObject nodeobj =  jobj.get(node.getName());
-		jobj.put(name, nodeobj);
-		link.copyDeserializer.deserialize(jobj);
-		Node newnode = node.getParent().getChild(name);
-		DnpOutstation os = new DnpOutstation(link, newnode);
-		os.restoreLastSession();
-	}
-	
-	private void makeDiscoverAction() {
-		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
-			public void handle(ActionResult event) {
-				discover();
-			}
-		});
-		Node anode = node.getChild("discover");
-		if (anode == null) node.createChild("discover").setAction(act).build().setSerializable(false);
-		else anode.setAction(act);
-		
-//		act = new Action(Permission.READ, new Handler<ActionResult>() {
-//			public void handle(ActionResult event) {
-//				update();
-//			}
-//		});
-//		anode = node.getChild("update");
-//		if (anode == null) node.createChild("update").setAction(act).build().setSerializable(false);
-//		else anode.setAction(act);
-	}
-	
-	private void discover() {
-		
-		try {
-			LOGGER.debug("Sending Read Static Data Request");
-			user.sendSynch(user.buildReadStaticDataMsg());
-			statnode.setValue(new Value("Connected"));
-		} catch (Exception e) {
-			statnode.setValue(new Value("Latest poll failed"));
-			LOGGER.debug("", e);
-		}
-		
-		
-	}
-	
-	private void update() {
-		try {
-			user.sendSynch(user.buildReadEventDataMsg());
-		} catch (Exception e) {
-			LOGGER.debug("" ,e);
-		}
-	}
-	
-	private void updateValue(DataElement element) {
-		DataType dt = DataType.getGroupType(element.getGroup());
-		Integer num = element.getIndex();
-		String valStr = element.getValue();
-		updateNode(dt, num, valStr);
-		
-	}
-	
-	private void updateValues() {
-		Database db = user.getDatabase();
-		handleStaticData(DataType.BI, db.getBinaryInputPoints());
-		handleStaticData(DataType.DI, db.getDoubleInputPoints());
-		handleStaticData(DataType.AI, db.getAnalogInputPoints());
-		handleStaticData(DataType.CI, db.getCounterInputPoints());
-		handleStaticData(DataType.BO, db.getBinaryOutputPoints());
-		handleStaticData(DataType.AO, db.getAnalogOutputPoints());
-	}
-	
-	private void handleStaticData(DataType type, HashMap<Integer, DataBuffer> data) {
-		if (data == null || data.isEmpty()) return;
-		for (Entry<Integer, DataBuffer> entry: data.entrySet()) {
-			Integer num = entry.getKey();
-			DataBuffer valBuf = entry.getValue();
-			String valStr = valBuf.readLastRecord().getValue();
-			updateNode(type, num, valStr);			
-		}
-	}
-	
-	private void updateNode(final DataType type, final int index, String value) {
-		String pointName = type.toString() + " " + Integer.toString(index);
-		Node dataNode = getDataNode(type);
-		Node pointNode = dataNode.getChild(pointName);
-		if (pointNode == null) {
-			pointNode = dataNode.createChild(pointName).setValueType(type.getValueType()).setValue(type.makeValue(value)).build();
-			pointNode.getListener().setOnSubscribeHandler(new Handler<Node>() {
-				public void handle(Node event) {
-					subscribe(event);
-				}
-			});
-			pointNode.getListener().setOnUnsubscribeHandler(new Handler<Node>() {
-				public void handle(Node event) {
-					unsubscribe(event);
-				}
-			});
-			if (type == DataType.BO || type == DataType.AO) {
-				pointNode.setWritable(Writable.WRITE);
-				pointNode.getListener().setValueHandler(new Handler<ValuePair>() {
-					public void handle(ValuePair event) {
-						if (!event.isFromExternalSource()) return;
-						Value val = event.getCurrent();
-		        		if (!val.equals(event.getPrevious())) handleSet(type, index, val);
-					}
-				});
-			}
-		} else {
-			pointNode.setValue(type.makeValue(value));
-		}
-	}
-	
-	private void handleSet(DataType type, int index, Value val) {
-		Buffer cmd = null;
-		if (type == DataType.AO) {
-			cmd = user.buildAnalogControlCommand(AppFeatures.DIRECT_OPERATE, index, val.getNumber().doubleValue());
-		} else if (type == DataType.BO) {
-			byte code = val.getBool().booleanValue() ? (byte) 1 : (byte) 0;
-			cmd = user.buildBinaryControlCommand(AppFeatures.DIRECT_OPERATE, index, code, 0, 0);
-		}
-		if (cmd != null) {
-			try {
-				user.sendSynch(cmd);
-			} catch (Exception e) {
-				LOGGER.debug("" ,e);
-			}
-			discover();
-		}
-		
-	}
-	
-	private static boolean databaseIsEmpty(Database db) {
-		if (db == null) return true;
-		return (db.getAnalogInputPoints().isEmpty() && db.getAnalogOutputPoints().isEmpty() &&
-				db.getBinaryInputPoints().isEmpty() && db.getBinaryOutputPoints().isEmpty() &&
-				db.getCounterInputPoints().isEmpty());
-	}
-	
-	private enum DataType {
-		BI("Binary Input", 0x01), AI("Analog Input", 0x30), CI("Counter Input", 0x20), BO("Control Output", 0x10), AO("Analog Output", 0x40), DI("Double Input", 0x03);
-	
-		private String name;
-		private String nodeName;
-		private int group;
-		
-		private DataType(String name, int group) {
-			this.name = name;
-			this.nodeName = name + "s";
-			this.group = group;
-		}
-		
-		@Override
-		public String toString() {
-			return name;
-		}
-		
-		public static DataType getGroupType(int group) {
-			switch(group) {
-			case 0x00:
-			case 0x01:
-				return BI;
-			case 0x03:
-				return DI;
-			case 0x10:
-				return BO;
-			case 0x20:
-				return CI;
-			case 0x30:
-				return AI;
-			case 0x40:
-				return AO;
-			default:
-				return null;
-			}
-		}
-		
-		public ValueType getValueType() {
-			switch(this) {
-			case BI:
-			case BO:
-				return ValueType.BOOL;
-			case DI:
-				return ValueType.makeEnum("Intermediate", "Off", "On", "Indeterminate");
-			default:
-				return ValueType.NUMBER;
-			}
-		}
-		
-		public Value makeValue(String str) {
-			switch(this) {
-			case BI:
-			case BO:
-				return new Value(Boolean.parseBoolean(str));
-			case DI:
-				return new Value(str);
-			default:
-				return new Value(Double.parseDouble(str));
-			}
-		}
-	}
-	
-	private Node getDataNode(DataType type) {
-		switch(type) {
-		case BI: {
-			if (binode == null) binode = node.createChild(type.nodeName).build();
-			return binode;
-		}
-		case DI: {
-			if (dinode == null) dinode = node.createChild(type.nodeName).build();
-			return dinode;
-		}
-		case AI: {
-			if (ainode == null) ainode = node.createChild(type.nodeName).build();
-			return ainode;
-		}
-		case CI: {
-			if (cinode == null) cinode = node.createChild(type.nodeName).build();
-			return cinode;
-		}
-		case BO: {
-			if (bonode == null) bonode = node.createChild(type.nodeName).build();
-			return bonode;
-		}
-		case AO: {
-			if (aonode == null) aonode = node.createChild(type.nodeName).build();
-			return aonode;
-		}
-		}
-		return null;
-	}
-	
-	private void subscribe(Node event) {
-		boolean wasEmpty = subscribed.isEmpty();
-		subscribed.add(event);
-		if (wasEmpty) startPoll();
-	}
-	
-	private void unsubscribe(Node event) {
-		subscribed.remove(event);
-		if (subscribed.isEmpty()) stopPoll();
-	}
-	
-	private void startPoll() {
-		if (future != null) return;
-		long interval = node.getAttribute("Event Polling Interval").getNumber().longValue();
-		ScheduledThreadPoolExecutor stpe = Objects.getDaemonThreadPool();
-		future = stpe.scheduleWithFixedDelay(new Runnable() {
-			public void run() {
-				if (pollsSinceLastDiscover < pollsPerDiscover - 1) {
-					try {
-						LOGGER.debug("Sending Read Event Data Request");
-						user.sendSynch(user.buildReadEventDataMsg());
-						statnode.setValue(new Value("Connected"));
-					} catch (Exception e) {
-						statnode.setValue(new Value("Latest poll failed"));
-						LOGGER.debug("" ,e);
-					}
-					pollsSinceLastDiscover += 1;
-				} else {
-					discover();
-					pollsSinceLastDiscover = 0;
-				}
-			}
-		}, 0, interval, TimeUnit.MILLISECONDS);
-	}
-	
-	private void stopPoll() {
-		if (future != null) future.cancel(false);
-		future = null;
-	}
-	
-	
-
-}
+package dnp3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.Permission;
+import org.dsa.iot.dslink.node.Writable;
+import org.dsa.iot.dslink.node.actions.Action;
+import org.dsa.iot.dslink.node.actions.ActionResult;
+import org.dsa.iot.dslink.node.actions.Parameter;
+import org.dsa.iot.dslink.node.actions.ResultType;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValuePair;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.historian.stats.GetHistory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.org.scadabr.dnp34j.master.common.AppFeatures;
+import br.org.scadabr.dnp34j.master.common.DataMapFeatures;
+import br.org.scadabr.dnp34j.master.common.InitFeatures;
+import br.org.scadabr.dnp34j.master.common.utils.Buffer;
+import br.org.scadabr.dnp34j.master.session.DNPUser;
+import br.org.scadabr.dnp34j.master.session.database.DataElement;
+
+public class DnpOutstation {
+	
+	private static final byte ENABLE_UNSOLICITED = (byte) 0x14;
+	private static final byte DISABLE_UNSOLICITED = (byte) 0x15;
+	private static final byte IIN2_EVENT_BUFFER_OVERFLOW = (byte) 0x08;
+	private static final int IIN_DEVICE_RESTART_INDEX = 7;
+	private static final String INTEGRITY_KEY = "integrity";
+	private static final String RANGE_KEY = "range";
+	private static final String CONTROL_KEY = "control";
+	private static final String READBACK_KEY = "readback";
+	private static final int ALL_CLASSES = 7;
+	private static final long MIN_TICK = 100;
+	private static final int RANGE_SIZE = 500;
+	static final String LAZY_ATTR = "Lazy Point Nodes";
+	static final String DEADBANDS_ATTR = "Point Deadbands";
+	static final String GET_HISTORY_PROFILE = "getHistory_";
+	static final String STALE_ATTR = "Stale";
+	private static final int OFFLINE_AFTER_FAILURES = 3;
+	private static final long CATALOG_INTERVAL = 60000;
+	
+	enum LinkState {
+		CONNECTING, ONLINE, DEGRADED, OFFLINE
+	}
+	
+	static final String[] CLASS_INTERVAL_ATTRS = {
+		"Class 1 Polling Interval", "Class 2 Polling Interval", "Class 3 Polling Interval"
+	};
+	private static final byte[] CLASS_VARIATIONS = {
+		DataMapFeatures.CLASS_1_VAR, DataMapFeatures.CLASS_2_VAR, DataMapFeatures.CLASS_3_VAR
+	};
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(DnpOutstation.class);
+	
+	private DnpLink link;
+	private Node node;
+	private DnpChannel channel;
+	final RequestQueue requests = new RequestQueue();
+	volatile int stationIndex = 0;
+	private boolean isSerial;
+	
+	private Node statnode = null;
+	private Node suppressedNode = null;
+	
+	private Node ainode;
+	private Node binode;
+	private Node dinode;
+	private Node cinode;
+	private Node aonode;
+	private Node bonode;
+	
+	private final PointTable points = new PointTable();
+	private final ValueFilter filter = new ValueFilter();
+	private final PublishBuffer publisher;
+	private volatile HistoryStore history = null;
+	private ScheduledFuture<?> historyFlush = null;
+	final OutstationMetrics metrics = new OutstationMetrics();
+	final FrameRing frames = new FrameRing();
+	private ScheduledFuture<?> metricsFuture = null;
+	private ScheduledFuture<?> catalogFuture = null;
+	private long catalogUpdates = 0;
+	// the point tree came from the catalog and the link has not been up since
+	private volatile boolean catalogRestored = false;
+	
+	
+	private volatile long integrityInterval;
+	private volatile long lastIntegrity = 0;
+	// the last static read, full or of the subscribed ranges only
+	private volatile long lastStatic = 0;
+	private volatile int rangeReads = 0;
+	private volatile int rangeGap = 16;
+	private volatile int fullReadEvery = 6;
+	private volatile boolean integrityDue = true;
+	private volatile boolean restartSeen = false;
+	private volatile boolean overflowSeen = false;
+	private volatile long pollInterval;
+	private final long[] classIntervals = new long[CLASS_INTERVAL_ATTRS.length];
+	private final AtomicInteger pendingClasses = new AtomicInteger();
+	private volatile boolean unsolicited = false;
+	private volatile boolean lazy = false;
+	private final ControlBatch controls = new ControlBatch();
+	private volatile boolean selectBeforeOperate = false;
+	private volatile boolean readbackRange = true;
+	
+	private volatile LinkState state = LinkState.CONNECTING;
+	private int consecutiveFailures = 0;
+	private final Backoff probeBackoff = new Backoff(1000, 300000);
+	private ScheduledFuture<?> probeFuture = null;
+	private final Runnable probeTask = new Runnable() {
+		public void run() {
+			discover();
+		}
+	};
+	
+	private final SubscribedPoints subscribed = new SubscribedPoints();
+	ScheduledFuture<?> future;
+	
+	DnpOutstation(DnpLink link, Node node) {
+		this.link = link;
+		this.node = node;
+		isSerial = node.getAttribute("Is Serial").getBool();
+		publisher = new PublishBuffer(points, link.getPollScheduler());
+		if (isSerial) link.serialOutstations.add(this);
+		link.outstations.add(this);
+	}
+	
+	void init() {
+		init(false);
+	}
+	
+	/**
+	 * @param restore whether to rebuild the points from the saved catalog. Attaching to the
+	 * channel schedules the connect, so this and the settings are done first.
+	 */
+	private void init(boolean restore) {
+		
+		if (statnode == null) {
+			statnode = node.createChild("Status").setValueType(ValueType.STRING).setValue(new Value("Initializing")).build();
+		} else {
+			statnode.setValue(new Value("Initializing"));
+		}
+		
+		configure();
+		if (restore) restoreCatalog();
+		state = LinkState.CONNECTING;
+		channel = link.attachChannel(this);
+		if (channel != null) statnode.setValue(new Value("Waiting to connect"));
+	}
+	
+	/**
+	 * Reads the outstation's settings from its node's attributes and (re)creates its actions.
+	 */
+	private void configure() {
+        for (int i = 0; i < CLASS_INTERVAL_ATTRS.length; i++) {
+        	classIntervals[i] = Math.max(0, node.getAttribute(CLASS_INTERVAL_ATTRS[i]).getNumber().longValue());
+        }
+        integrityInterval = node.getAttribute("Static Polling Interval").getNumber().longValue();
+        integrityDue = true;
+        Value gap = node.getAttribute(SubscribedPoints.GAP_ATTR);
+        rangeGap = gap != null && gap.getNumber() != null ? Math.max(0, gap.getNumber().intValue()) : 16;
+        Value full = node.getAttribute(SubscribedPoints.FULL_READ_ATTR);
+        fullReadEvery = full != null && full.getNumber() != null ? Math.max(1, full.getNumber().intValue()) : 6;
+        Value unsol = node.getAttribute("Unsolicited");
+        unsolicited = unsol != null && unsol.getBool() != null && unsol.getBool().booleanValue();
+        Value lz = node.getAttribute(LAZY_ATTR);
+        lazy = lz != null && lz.getBool() != null && lz.getBool().booleanValue();
+        Value sbo = node.getAttribute(ControlBatch.SBO_ATTR);
+        selectBeforeOperate = sbo != null && sbo.getBool() != null && sbo.getBool().booleanValue();
+        Value rb = node.getAttribute(ControlBatch.READBACK_ATTR);
+        readbackRange = rb == null || !ControlBatch.READBACK_EVENTS.equals(rb.getString());
+        
+        makeRemoveAction();
+        makeEditAction();
+        makeDiscoverAction();
+        SnapshotStream.makeAction(node, link.getPollScheduler(), Collections.singleton(this));
+        makeDumpFramesAction();
+        
+        filter.configure(node);
+        configurePublisher();
+        makeFilterActions();
+        
+        configureHistory();
+        makeHistoryAction();
+        link.getJournal().attach(this);
+        
+        startMetrics();
+        startCatalog();
+	}
+	
+	private void startMetrics() {
+		stopMetrics();
+		final Runnable publishTask = new Runnable() {
+			public void run() {
+				metrics.publish(node, filter.getSuppressed());
+			}
+		};
+		metricsFuture = link.getPollScheduler().scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				link.getPollScheduler().execute(publishTask);
+			}
+		}, OutstationMetrics.PUBLISH_INTERVAL, OutstationMetrics.PUBLISH_INTERVAL);
+	}
+	
+	private void stopMetrics() {
+		if (metricsFuture != null) metricsFuture.cancel(false);
+		metricsFuture = null;
+	}
+	
+	/**
+	 * Saves the point catalog every CATALOG_INTERVAL, if any point has been updated since the
+	 * last save. The first save is at a random point within twice that, so that outstations
+	 * restored together don't all write together.
+	 */
+	private void startCatalog() {
+		stopCatalog();
+		final Runnable saveTask = new Runnable() {
+			public void run() {
+				long updates = metrics.getUpdates();
+				if (updates == catalogUpdates) return;
+				catalogUpdates = updates;
+				PointCatalog.save(node.getName(), points);
+			}
+		};
+		long delay = CATALOG_INTERVAL + ThreadLocalRandom.current().nextLong(CATALOG_INTERVAL);
+		catalogFuture = link.getPollScheduler().scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				link.getPollScheduler().execute(saveTask);
+			}
+		}, delay, CATALOG_INTERVAL);
+	}
+	
+	private void stopCatalog() {
+		if (catalogFuture != null) catalogFuture.cancel(false);
+		catalogFuture = null;
+	}
+	
+	private void configurePublisher() {
+		Value rate = node.getAttribute(PublishBuffer.RATE_ATTR);
+		publisher.setMaxRate(rate != null && rate.getNumber() != null ? rate.getNumber().doubleValue() : 0);
+	}
+	
+	void restoreLastSession() {
+		publisher.clear();
+		points.clear();
+		restoreDeadbands();
+		node.clearChildren();
+		init(true);
+	}
+	
+	/**
+	 * Rebuilds the point tree from the saved catalog, so that points are there for clients to
+	 * subscribe to straight away. Restored values keep their saved time and count as not read
+	 * yet, which clients see as STALE_ATTR on the node and as quality PointTable.RESTORED. Instead of an integrity poll, the first static read is then of the subscribed
+	 * ranges, and the rest of the points catch up through events and later full reads.
+	 */
+	private synchronized void restoreCatalog() {
+		PointCatalog cat = PointCatalog.load(node.getName());
+		if (cat == null || cat.size == 0) return;
+		DataType[] types = DataType.values();
+		for (int i = 0; i < cat.size; i++) {
+			if (cat.types[i] < 0 || cat.types[i] >= types.length) continue;
+			DataType type = types[cat.types[i]];
+			int index = cat.indexes[i];
+			if (lazy) {
+				points.putValue(type, index, cat.values[i]);
+				points.setStale(type, index);
+				getRangeNode(type, index);
+			} else if (points.get(type, index) == null) {
+				Node pointNode = buildPointNode(getDataNode(type), type, index, cat.values[i]);
+				Value v = type.toValue(cat.values[i]);
+				v.setTime(cat.times[i]);
+				pointNode.setValue(v);
+				markStale(pointNode, type, index);
+			}
+		}
+		catalogRestored = true;
+		integrityDue = false;
+	}
+	
+	/**
+	 * Per-point deadbands are kept in the outstation's DEADBANDS_ATTR, since point nodes in
+	 * lazy range folders are not serialized. Older versions kept them as attributes on the
+	 * point nodes, which are cleared on restore, so those are read back into the point table
+	 * first.
+	 */
+	private void restoreDeadbands() {
+		for (Map.Entry<String, String> entry: getDeadbandOverrides().entrySet()) {
+			try {
+				String key = entry.getKey();
+				DataType type = DataType.valueOf(key.substring(0, key.indexOf(' ')));
+				int index = Integer.parseInt(key.substring(key.indexOf(' ') + 1));
+				String[] bands = entry.getValue().split("/");
+				points.setDeadbands(type, index, Double.parseDouble(bands[0]), Double.parseDouble(bands[1]));
+			} catch (Exception e) {
+				LOGGER.debug("", e);
+			}
+		}
+		if (node.getChildren() == null) return;
+		for (DataType type: ValueFilter.NUMERIC_TYPES) {
+			for (Node pointNode: getPointNodes(type)) {
+				Value db = pointNode.getAttribute("Deadband");
+				Value pct = pointNode.getAttribute("Deadband %");
+				if (db == null && pct == null) continue;
+				String name = pointNode.getName();
+				try {
+					int index = Integer.parseInt(name.substring(name.lastIndexOf(' ') + 1));
+					points.setDeadbands(type, index, db != null ? db.getNumber().doubleValue() : Double.NaN,
+							pct != null ? pct.getNumber().doubleValue() : Double.NaN);
+				} catch (Exception e) {
+					LOGGER.debug("", e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the overrides in DEADBANDS_ATTR, "AI 12=0.5/NaN, CI 3=NaN/2", by "type index"
+	 */
+	private Map<String, String> getDeadbandOverrides() {
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		Value v = node.getAttribute(DEADBANDS_ATTR);
+		if (v == null || v.getString() == null) return result;
+		for (String entry: v.getString().split(",")) {
+			int eq = entry.indexOf('=');
+			if (eq > 0) result.put(entry.substring(0, eq).trim(), entry.substring(eq + 1).trim());
+		}
+		return result;
+	}
+	
+	private void saveDeadbandOverride(DataType type, int index, double deadband, double percent) {
+		Map<String, String> overrides = getDeadbandOverrides();
+		String key = type.name() + " " + index;
+		if (Double.isNaN(deadband) && Double.isNaN(percent)) overrides.remove(key);
+		else overrides.put(key, deadband + "/" + percent);
+		if (overrides.isEmpty()) {
+			node.removeAttribute(DEADBANDS_ATTR);
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> entry: overrides.entrySet()) {
+			if (sb.length() > 0) sb.append(", ");
+			sb.append(entry.getKey()).append('=').append(entry.getValue());
+		}
+		node.setAttribute(DEADBANDS_ATTR, new Value(sb.toString()));
+	}
+	
+	/**
+	 * @return the type's point nodes, including those in index-range subfolders
+	 */
+	private List<Node> getPointNodes(DataType type) {
+		List<Node> result = new ArrayList<Node>();
+		Node folder = node.getChild(type.nodeName);
+		if (folder == null || folder.getChildren() == null) return result;
+		String prefix = type.toString() + " ";
+		for (Node child: folder.getChildren().values()) {
+			if (child.getName().startsWith(prefix)) {
+				result.add(child);
+			} else if (child.getChildren() != null) {
+				result.addAll(child.getChildren().values());
+			}
+		}
+		return result;
+	}
+	
+	private void applyDeadbandAttributes(Node pointNode, DataType type, int index) {
+		double db = points.getDeadband(type, index);
+		double pct = points.getPercentDeadband(type, index);
+		if (Double.isNaN(db)) pointNode.removeAttribute("Deadband");
+		else pointNode.setAttribute("Deadband", new Value(db));
+		if (Double.isNaN(pct)) pointNode.removeAttribute("Deadband %");
+		else pointNode.setAttribute("Deadband %", new Value(pct));
+	}
+	
+	private void makeRemoveAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() { 
+			public void handle(ActionResult event) {
+				remove();
+			}
+		});
+		Node anode = node.getChild("remove");
+		if (anode == null) node.createChild("remove").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+	
+	private void remove() {
+		stop();
+		stopMetrics();
+		stopCatalog();
+		PointCatalog.delete(node.getName());
+		node.clearChildren();
+		publisher.clear();
+		points.clear();
+		HistoryStore h = history;
+		closeHistory();
+		if (h != null) h.delete();
+		link.getJournal().detach(this);
+		node.getParent().removeChild(node);
+		link.serialOutstations.remove(this);
+		link.outstations.remove(this);
+	}
+	
+	private void stop() {
+		cancelProbe();
+		if (channel != null) {
+			link.detachChannel(this, channel);
+			channel = null;
+			statnode.setValue(new Value("Stopped"));
+		}
+		requests.clear();
+	}
+	
+	LinkState getState() {
+		return state;
+	}
+	
+	/**
+	 * Called after the channel's connection attempt, with whether this outstation's link
+	 * could be reset.
+	 */
+	void connectionChanged(boolean connected) {
+		if (connected) goOnline(false);
+		else goOffline("Failed to connect");
+	}
+	
+	/**
+	 * Called when the channel's connection could not be opened at all. The channel then
+	 * schedules its own reconnect, so no probe is scheduled here.
+	 */
+	synchronized void channelDown() {
+		state = LinkState.OFFLINE;
+		cancelProbe();
+		requests.clear();
+	}
+	
+	synchronized void requestSucceeded(DnpRequest req) {
+		if (state == LinkState.ONLINE) {
+			consecutiveFailures = 0;
+		} else {
+			goOnline(INTEGRITY_KEY.equals(req.key));
+		}
+	}
+	
+	synchronized void requestFailed() {
+		consecutiveFailures += 1;
+		if (state == LinkState.OFFLINE || consecutiveFailures >= OFFLINE_AFTER_FAILURES) {
+			goOffline(consecutiveFailures + " requests failed");
+		} else {
+			state = LinkState.DEGRADED;
+			statnode.setValue(new Value("Degraded, " + consecutiveFailures + " request(s) failed"));
+		}
+	}
+	
+	/**
+	 * @param integrity whether the request that brought the link back was an integrity poll
+	 */
+	private synchronized void goOnline(boolean integrity) {
+		boolean wasUp = state == LinkState.ONLINE || state == LinkState.DEGRADED;
+		state = LinkState.ONLINE;
+		consecutiveFailures = 0;
+		probeBackoff.reset();
+		cancelProbe();
+		statnode.setValue(new Value("Online"));
+		DnpChannel ch = channel;
+		if (ch != null) ch.memberOnline();
+		if (catalogRestored) {
+			// the first static read reconciles the restored points; see restoreCatalog
+			catalogRestored = false;
+		} else if (!wasUp) {
+			// events may have been missed while the link was down
+			integrityDue = true;
+			if (future != null && !integrity) discover();
+		}
+	}
+	
+	/**
+	 * Stops polling and drops queued requests. If every outstation on the channel is offline
+	 * the channel reconnects; otherwise this outstation is probed with an integrity poll,
+	 * backing off exponentially between attempts.
+	 */
+	private synchronized void goOffline(String reason) {
+		state = LinkState.OFFLINE;
+		requests.clear();
+		statnode.setValue(new Value("Offline, " + reason));
+		DnpChannel ch = channel;
+		if (ch == null || ch.memberOffline()) return;
+		long delay = probeBackoff.next();
+		statnode.setValue(new Value("Offline, " + reason + ", retrying in " + (delay / 1000) + "s"));
+		cancelProbe();
+		probeFuture = link.getPollScheduler().scheduleOnce(probeTask, delay);
+	}
+	
+	private synchronized void cancelProbe() {
+		if (probeFuture != null) probeFuture.cancel(false);
+		probeFuture = null;
+	}
+	
+	/**
+	 * Called with the internal indications of every solicited response. A full static read is
+	 * only needed when events may have been lost: after the outstation restarts, or when its
+	 * event buffer overflows. Each is acted on once, when its bit is first seen set.
+	 */
+	void checkIin(byte iin1, byte iin2, DnpRequest req) {
+		boolean restart = (iin1 & AppFeatures.DEVICE_RESTART) != 0;
+		boolean overflow = (iin2 & IIN2_EVENT_BUFFER_OVERFLOW) != 0;
+		boolean restarted = restart && !restartSeen;
+		boolean overflowed = overflow && !overflowSeen;
+		restartSeen = restart;
+		overflowSeen = overflow;
+		if (restarted) clearRestart();
+		if ((restarted || overflowed) && !INTEGRITY_KEY.equals(req.key)) {
+			LOGGER.debug(getName() + ": " + (restarted ? "device restart" : "event buffer overflow") + ", requesting integrity poll");
+			integrityDue = true;
+			discover();
+		}
+	}
+	
+	private void clearRestart() {
+		requests.submit(new DnpRequest(DnpRequest.Priority.CONTROL, "clear restart") {
+			Buffer build(DNPUser user) throws Exception {
+				Buffer request = user.getAppSnd().buildRequestMsg(AppFeatures.WRITE, DataMapFeatures.IIN_STATIC, (byte) 1,
+						IIN_DEVICE_RESTART_INDEX, IIN_DEVICE_RESTART_INDEX);
+				request.writeByte((byte) 0);
+				return request;
+			}
+			
+			@Override
+			void failed(Exception e) {
+				LOGGER.debug("", e);
+			}
+		});
+	}
+	
+	void setStatus(String status) {
+		statnode.setValue(new Value(status));
+	}
+	
+	Node getNode() {
+		return node;
+	}
+	
+	PointTable getPoints() {
+		return points;
+	}
+	
+	String getName() {
+		return node.getName();
+	}
+	
+	boolean isSerial() {
+		return isSerial;
+	}
+	
+	int getMasterAddress() {
+		return node.getAttribute("Master Address").getNumber().intValue();
+	}
+	
+	int getOutstationAddress() {
+		return node.getAttribute("Outstation Address").getNumber().intValue();
+	}
+	
+	void makeEditAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				edit(event);
+			}
+		});
+
+		act.addParameter(new Parameter("Name", ValueType.STRING, new Value(node.getName())));
+		if (isSerial) {
+			Set<String> portids = link.getCOMPorts();
+			if (portids.size() > 0) {
+				if (portids.contains(node.getAttribute("COM Port").getString())) {
+					act.addParameter(new Parameter("COM Port", ValueType.makeEnum(portids), node.getAttribute("COM Port")));
+					act.addParameter(new Parameter("COM Port (manual entry)", ValueType.STRING));
+				} else {
+					act.addParameter(new Parameter("COM Port", ValueType.makeEnum(portids)));
+					act.addParameter(new Parameter("COM Port (manual entry)", ValueType.STRING, node.getAttribute("COM Port")));
+				}
+			} else {
+				act.addParameter(new Parameter("COM Port", ValueType.STRING, node.getAttribute("COM Port")));
+			}
+			act.addParameter(new Parameter("Baud Rate", ValueType.NUMBER, node.getAttribute("Baud Rate")));
+			act.addParameter(new Parameter("Data Bits", ValueType.NUMBER, node.getAttribute("Data Bits")));
+			act.addParameter(new Parameter("Stop Bits", ValueType.NUMBER, node.getAttribute("Stop Bits")));
+			act.addParameter(new Parameter("Parity", ValueType.NUMBER, node.getAttribute("Parity")));
+		} else {
+			act.addParameter(new Parameter("Host", ValueType.STRING, node.getAttribute("Host")));
+			act.addParameter(new Parameter("Port", ValueType.NUMBER, node.getAttribute("Port")));
+		}
+		act.addParameter(new Parameter("Master Address", ValueType.NUMBER, node.getAttribute("Master Address")));
+		act.addParameter(new Parameter("Outstation Address", ValueType.NUMBER, node.getAttribute("Outstation Address")));
+		for (String attr: CLASS_INTERVAL_ATTRS) {
+			double defint = node.getAttribute(attr).getNumber().doubleValue() / 1000;
+			act.addParameter(new Parameter(attr, ValueType.NUMBER, new Value(defint)));
+		}
+		double defsint = node.getAttribute("Static Polling Interval").getNumber().doubleValue() / 1000;
+		act.addParameter(new Parameter("Static Polling Interval", ValueType.NUMBER, new Value(defsint)));
+		act.addParameter(new Parameter(SubscribedPoints.GAP_ATTR, ValueType.NUMBER, new Value(rangeGap)));
+		act.addParameter(new Parameter(SubscribedPoints.FULL_READ_ATTR, ValueType.NUMBER, new Value(fullReadEvery)));
+		act.addParameter(new Parameter("Unsolicited", ValueType.BOOL, new Value(unsolicited)));
+		act.addParameter(new Parameter(LAZY_ATTR, ValueType.BOOL, new Value(lazy)));
+		act.addParameter(new Parameter(ControlBatch.SBO_ATTR, ValueType.BOOL, new Value(selectBeforeOperate)));
+		act.addParameter(new Parameter(ControlBatch.READBACK_ATTR, ValueType.makeEnum(ControlBatch.READBACK_RANGE, ControlBatch.READBACK_EVENTS),
+				new Value(readbackRange ? ControlBatch.READBACK_RANGE : ControlBatch.READBACK_EVENTS)));
+		Node anode = node.getChild("edit");
+		if (anode == null) node.createChild("edit").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+	
+	private void edit(ActionResult event) {
+		String name = event.getParameter("Name", ValueType.STRING).getString();
+		Map<String, Value> before = new HashMap<String, Value>(node.getAttributes());
+		
+		if (isSerial) {
+			String com;
+			Value customPort = event.getParameter("COM Port (manual entry)");
+			if (customPort != null && customPort.getString() != null && customPort.getString().trim().length() > 0) {
+				com = customPort.getString();
+			} else {
+				com = event.getParameter("COM Port").getString();
+			}
+			int baud = event.getParameter("Baud Rate", ValueType.NUMBER).getNumber().intValue();
+			int dbits = event.getParameter("Data Bits", ValueType.NUMBER).getNumber().intValue();
+			int sbits = event.getParameter("Stop Bits", ValueType.NUMBER).getNumber().intValue();
+			int parity = event.getParameter("Parity", ValueType.NUMBER).getNumber().intValue();
+		
+			node.setAttribute("COM Port", new Value(com));
+			node.setAttribute("Baud Rate", new Value(baud));
+			node.setAttribute("Data Bits", new Value(dbits));
+			node.setAttribute("Stop Bits", new Value(sbits));
+			node.setAttribute("Parity", new Value(parity));
+		} else {
+			String host = event.getParameter("Host", ValueType.STRING).getString();
+			int port = event.getParameter("Port", ValueType.NUMBER).getNumber().intValue();
+		
+			node.setAttribute("Host", new Value(host));
+			node.setAttribute("Port", new Value(port));
+		}
+		
+		int maddr = event.getParameter("Master Address", ValueType.NUMBER).getNumber().intValue();
+		int oaddr = event.getParameter("Outstation Address", ValueType.NUMBER).getNumber().intValue();
+		long sinterval = (long) (event.getParameter("Static Polling Interval", ValueType.NUMBER).getNumber().doubleValue() * 1000);
+		
+		node.setAttribute("Master Address", new Value(maddr));
+		node.setAttribute("Outstation Address", new Value(oaddr));
+		for (String attr: CLASS_INTERVAL_ATTRS) {
+			long interval = (long) (event.getParameter(attr, ValueType.NUMBER).getNumber().doubleValue() * 1000);
+			node.setAttribute(attr, new Value(interval));
+		}
+		node.setAttribute("Static Polling Interval", new Value(sinterval));
+		node.setAttribute(SubscribedPoints.GAP_ATTR, event.getParameter(SubscribedPoints.GAP_ATTR, ValueType.NUMBER));
+		node.setAttribute(SubscribedPoints.FULL_READ_ATTR, event.getParameter(SubscribedPoints.FULL_READ_ATTR, ValueType.NUMBER));
+		node.setAttribute("Unsolicited", event.getParameter("Unsolicited", ValueType.BOOL));
+		boolean wasLazy = lazy;
+		node.setAttribute(LAZY_ATTR, event.getParameter(LAZY_ATTR, ValueType.BOOL));
+		node.setAttribute(ControlBatch.SBO_ATTR, event.getParameter(ControlBatch.SBO_ATTR, ValueType.BOOL));
+		node.setAttribute(ControlBatch.READBACK_ATTR, event.getParameter(ControlBatch.READBACK_ATTR));
+		
+		if (!node.getName().equals(name)) {
+			rename(name, !before.equals(node.getAttributes()));
+		} else {
+			stop();
+			init();
+			// the point tree is laid out differently, so rebuild it from the next poll
+			if (lazy != wasLazy) clearPointNodes();
+		}
+	}
+	
+	/**
+	 * Moves the outstation to a new node under the new name. Only the outstation's attributes
+	 * and its point deadbands are carried over; point nodes are rebuilt as values come in.
+	 * If nothing but the name changed, the outstation stays attached to its channel, so the
+	 * connection is kept.
+	 */
+	private void rename(String newname, boolean reconnect) {
+		if (reconnect) stop();
+		subscribed.clear();
+		stopPoll();
+		closeHistory();
+		HistoryStore.rename(node.getName(), newname);
+		PointCatalog.rename(node.getName(), newname);
+		link.getJournal().rename(node.getName(), newname);
+		String status = statnode.getValue().getString();
+		synchronized (this) {
+			publisher.clear();
+			points.clear();
+			restoreDeadbands();
+			Node oldnode = node;
+			Node newnode = oldnode.getParent().createChild(newname).build();
+			for (Map.Entry<String, Value> entry: oldnode.getAttributes().entrySet()) {
+				newnode.setAttribute(entry.getKey(), entry.getValue());
+			}
+			node = newnode;
+			statnode = suppressedNode = null;
+			binode = dinode = ainode = cinode = bonode = aonode = null;
+			oldnode.getParent().removeChild(oldnode);
+		}
+		if (reconnect) {
+			init();
+		} else {
+			statnode = node.createChild("Status").setValueType(ValueType.STRING).setValue(new Value(status)).build();
+			configure();
+			// the connection is still up, so repopulate the point nodes straight away
+			discover();
+		}
+	}
+	
+	private void makeFilterActions() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				editFilter(event);
+			}
+		});
+		Value en = node.getAttribute(ValueFilter.ENABLED_ATTR);
+		act.addParameter(new Parameter(ValueFilter.ENABLED_ATTR, ValueType.BOOL, en != null ? en : new Value(false)));
+		for (DataType type: ValueFilter.NUMERIC_TYPES) {
+			Value db = node.getAttribute(ValueFilter.deadbandAttr(type));
+			Value pct = node.getAttribute(ValueFilter.percentAttr(type));
+			act.addParameter(new Parameter(ValueFilter.deadbandAttr(type), ValueType.NUMBER, db != null ? db : new Value(0)));
+			act.addParameter(new Parameter(ValueFilter.percentAttr(type), ValueType.NUMBER, pct != null ? pct : new Value(0)));
+		}
+		Value rate = node.getAttribute(PublishBuffer.RATE_ATTR);
+		act.addParameter(new Parameter(PublishBuffer.RATE_ATTR, ValueType.NUMBER, rate != null ? rate : new Value(0)));
+		Node anode = node.getChild("edit filtering");
+		if (anode == null) node.createChild("edit filtering").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+		
+		act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				setPointDeadband(event);
+			}
+		});
+		act.addParameter(new Parameter("Type", ValueType.makeEnum(DataType.AI.toString(), DataType.CI.toString(), DataType.AO.toString())));
+		act.addParameter(new Parameter("Index", ValueType.NUMBER));
+		act.addParameter(new Parameter("Deadband", ValueType.NUMBER));
+		act.addParameter(new Parameter("Deadband %", ValueType.NUMBER));
+		anode = node.getChild("set point deadband");
+		if (anode == null) node.createChild("set point deadband").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+		
+		if (suppressedNode == null) {
+			suppressedNode = node.createChild("Suppressed Updates").setValueType(ValueType.NUMBER).setValue(new Value(filter.getSuppressed())).build();
+			suppressedNode.setSerializable(false);
+		}
+	}
+	
+	private void editFilter(ActionResult event) {
+		node.setAttribute(ValueFilter.ENABLED_ATTR, new Value(event.getParameter(ValueFilter.ENABLED_ATTR, ValueType.BOOL).getBool()));
+		for (DataType type: ValueFilter.NUMERIC_TYPES) {
+			node.setAttribute(ValueFilter.deadbandAttr(type), event.getParameter(ValueFilter.deadbandAttr(type), ValueType.NUMBER));
+			node.setAttribute(ValueFilter.percentAttr(type), event.getParameter(ValueFilter.percentAttr(type), ValueType.NUMBER));
+		}
+		node.setAttribute(PublishBuffer.RATE_ATTR, event.getParameter(PublishBuffer.RATE_ATTR, ValueType.NUMBER));
+		filter.configure(node);
+		configurePublisher();
+		makeFilterActions();
+	}
+	
+	private void setPointDeadband(ActionResult event) {
+		String typeName = event.getParameter("Type", ValueType.STRING).getString();
+		int index = event.getParameter("Index", ValueType.NUMBER).getNumber().intValue();
+		Value db = event.getParameter("Deadband");
+		Value pct = event.getParameter("Deadband %");
+		DataType type = null;
+		for (DataType t: ValueFilter.NUMERIC_TYPES) {
+			if (t.toString().equals(typeName)) type = t;
+		}
+		if (type == null || index < 0) return;
+		double deadband = db != null && db.getNumber() != null ? db.getNumber().doubleValue() : Double.NaN;
+		double percent = pct != null && pct.getNumber() != null ? pct.getNumber().doubleValue() : Double.NaN;
+		points.setDeadbands(type, index, deadband, percent);
+		saveDeadbandOverride(type, index, deadband, percent);
+		// a lazy point that has no node yet shows it once one is built
+		Node pointNode = points.get(type, index);
+		if (pointNode != null) applyDeadbandAttributes(pointNode, type, index);
+	}
+	
+	private void configureHistory() {
+		closeHistory();
+		Value en = node.getAttribute(HistoryStore.ENABLED_ATTR);
+		if (en == null || en.getBool() == null || !en.getBool().booleanValue()) return;
+		Value size = node.getAttribute(HistoryStore.SIZE_ATTR);
+		final HistoryStore h = new HistoryStore(node.getName(), size != null ? size.getNumber().intValue() : 1000,
+				link.getPollScheduler());
+		h.load();
+		history = h;
+		final Runnable flushTask = new Runnable() {
+			public void run() {
+				h.flush();
+			}
+		};
+		historyFlush = link.getPollScheduler().scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				link.getPollScheduler().execute(flushTask);
+			}
+		}, 5000, 5000);
+	}
+	
+	private void closeHistory() {
+		if (historyFlush != null) historyFlush.cancel(false);
+		historyFlush = null;
+		HistoryStore h = history;
+		history = null;
+		if (h != null) h.close();
+	}
+	
+	private void makeHistoryAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				editHistory(event);
+			}
+		});
+		Value en = node.getAttribute(HistoryStore.ENABLED_ATTR);
+		Value size = node.getAttribute(HistoryStore.SIZE_ATTR);
+		act.addParameter(new Parameter(HistoryStore.ENABLED_ATTR, ValueType.BOOL, en != null ? en : new Value(false)));
+		act.addParameter(new Parameter(HistoryStore.SIZE_ATTR, ValueType.NUMBER, size != null ? size : new Value(1000)));
+		Node anode = node.getChild("edit history");
+		if (anode == null) node.createChild("edit history").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+	
+	private void editHistory(ActionResult event) {
+		node.setAttribute(HistoryStore.ENABLED_ATTR, new Value(event.getParameter(HistoryStore.ENABLED_ATTR, ValueType.BOOL).getBool()));
+		node.setAttribute(HistoryStore.SIZE_ATTR, new Value(Math.max(1, event.getParameter(HistoryStore.SIZE_ATTR, ValueType.NUMBER).getNumber().intValue())));
+		configureHistory();
+		makeHistoryAction();
+		for (DataType type: DataType.values()) {
+			for (Node pointNode: getPointNodes(type)) {
+				String name = pointNode.getName();
+				try {
+					int index = Integer.parseInt(name.substring(name.lastIndexOf(' ') + 1));
+					makeGetHistoryAction(pointNode, type, index);
+				} catch (Exception e) {
+					LOGGER.debug("", e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds a getHistory action to the point node while local history is on, and removes it
+	 * otherwise.
+	 */
+	private void makeGetHistoryAction(Node pointNode, final DataType type, final int index) {
+		if (history == null) {
+			if (pointNode.getChild("getHistory") != null) pointNode.removeChild("getHistory");
+			pointNode.removeAttribute("@getHistory");
+			return;
+		}
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				HistoryStore h = history;
+				if (h != null) h.getHistory(event, type, index);
+			}
+		});
+		// the historians' parameters and results, so that trend widgets can use it
+		GetHistory.initProfile(act);
+		Node anode = pointNode.getChild("getHistory");
+		if (anode == null) {
+			pointNode.createChild("getHistory").setAction(act).setProfile(GET_HISTORY_PROFILE).build().setSerializable(false);
+		} else {
+			anode.setAction(act);
+			anode.setProfile(GET_HISTORY_PROFILE);
+		}
+		// listed as @@getHistory, which points clients at the action
+		JsonObject alias = new JsonObject();
+		alias.put("@", "merge");
+		alias.put("type", "paths");
+		JsonArray paths = new JsonArray();
+		paths.add(pointNode.getPath() + "/getHistory");
+		alias.put("val", paths);
+		pointNode.setAttribute("@getHistory", new Value(alias));
+	}
+	
+	private void makeDumpFramesAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				frames.dump(event.getTable());
+			}
+		});
+		act.addResult(new Parameter("time", ValueType.TIME));
+		act.addResult(new Parameter("kind", ValueType.STRING));
+		act.addResult(new Parameter("ms", ValueType.NUMBER));
+		act.addResult(new Parameter("length", ValueType.NUMBER));
+		act.addResult(new Parameter("frame", ValueType.STRING));
+		act.setResultType(ResultType.TABLE);
+		Node anode = node.getChild("dump frames");
+		if (anode == null) node.createChild("dump frames").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+	
+	private void makeDiscoverAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				discover();
+			}
+		});
+		Node anode = node.getChild("discover");
+		if (anode == null) node.createChild("discover").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+		
+//		act = new Action(Permission.READ, new Handler<ActionResult>() {
+//			public void handle(ActionResult event) {
+//				update();
+//			}
+//		});
+//		anode = node.getChild("update");
+//		if (anode == null) node.createChild("update").setAction(act).build().setSerializable(false);
+//		else anode.setAction(act);
+	}
+	
+	private boolean discover() {
+		return requests.submit(new PollRequest(DnpRequest.Priority.INTEGRITY_POLL, INTEGRITY_KEY) {
+			Buffer build(DNPUser user) {
+				LOGGER.debug("Sending Read Static Data Request");
+				return user.buildReadStaticDataMsg();
+			}
+			
+			@Override
+			void completed(long millis) {
+				super.completed(millis);
+				integrityDue = false;
+				lastIntegrity = lastStatic = System.currentTimeMillis();
+				rangeReads = 0;
+				// re-enabled after every integrity poll, in case the outstation restarted since
+				if (unsolicited) setUnsolicited(true);
+			}
+		});
+	}
+	
+	/**
+	 * The periodic static read. Only the subscribed points are read, over coalesced ranges, so
+	 * that the bytes moved scale with what is watched; every fullReadEvery-th read is a full
+	 * class 0 read instead, to pick up anything the ranges and events missed.
+	 */
+	private boolean staticRead() {
+		if (rangeReads + 1 >= fullReadEvery || subscribed.isEmpty()) return discover();
+		return requests.submit(new PollRequest(DnpRequest.Priority.INTEGRITY_POLL, RANGE_KEY) {
+			Buffer build(DNPUser user) throws Exception {
+				Buffer request = subscribed.buildRead(user, rangeGap);
+				if (request != null) {
+					LOGGER.debug("Sending Read Subscribed Ranges Request");
+					return request;
+				}
+				return user.buildReadStaticDataMsg();
+			}
+			
+			@Override
+			void completed(long millis) {
+				super.completed(millis);
+				lastStatic = System.currentTimeMillis();
+				rangeReads++;
+			}
+		});
+	}
+	
+	/**
+	 * Sends the enable or disable unsolicited function code for event classes 1 to 3.
+	 * Unsolicited responses arrive through the same Database callback as polled data, and
+	 * the channel keeps them from completing whatever request is in flight.
+	 */
+	private boolean setUnsolicited(final boolean enable) {
+		return requests.submit(new DnpRequest(DnpRequest.Priority.EVENT_POLL, enable ? "enable unsolicited" : "disable unsolicited") {
+			Buffer build(DNPUser user) {
+				LOGGER.debug("Sending " + (enable ? "Enable" : "Disable") + " Unsolicited Request");
+				return buildClassRequest(user, enable ? ENABLE_UNSOLICITED : DISABLE_UNSOLICITED, ALL_CLASSES);
+			}
+			
+			@Override
+			void failed(Exception e) {
+				LOGGER.debug("", e);
+			}
+		});
+	}
+	
+	/**
+	 * Polls the given event classes (bit 0 for class 1). Classes that come due while an event
+	 * poll is still queued are merged into it, so coinciding classes go out in one frame.
+	 */
+	private boolean update(int classes) {
+		int prev;
+		do {
+			prev = pendingClasses.get();
+		} while (!pendingClasses.compareAndSet(prev, prev | classes));
+		return requests.submit(new PollRequest(DnpRequest.Priority.EVENT_POLL, "event") {
+			Buffer build(DNPUser user) {
+				int due = pendingClasses.getAndSet(0);
+				LOGGER.debug("Sending Read Event Data Request for classes " + due);
+				return buildClassRequest(user, AppFeatures.READ, due != 0 ? due : ALL_CLASSES);
+			}
+		});
+	}
+	
+	private static Buffer buildClassRequest(DNPUser user, byte fc, int classes) {
+		Buffer request = new Buffer(InitFeatures.S);
+		for (int i = 0; i < CLASS_VARIATIONS.length; i++) {
+			if ((classes & (1 << i)) != 0) {
+				request = user.getAppSnd().addObjectToRequest(request, fc, DataMapFeatures.CLASS_STATIC, CLASS_VARIATIONS[i]);
+			}
+		}
+		return request;
+	}
+	
+	private abstract class PollRequest extends DnpRequest {
+		PollRequest(Priority priority, String key) {
+			super(priority, key);
+		}
+		
+		@Override
+		void completed(long millis) {
+			publisher.requestFlush();
+			if (suppressedNode != null) suppressedNode.setValue(new Value(filter.getSuppressed()));
+			if (future != null && millis > pollInterval) link.getPollScheduler().recordOverrun();
+		}
+		
+		@Override
+		void failed(Exception e) {
+			publisher.requestFlush();
+			LOGGER.debug("", e);
+		}
+	}
+	
+	void updateValue(DataElement element) {
+		DataType dt = DataType.getGroupType(element.getGroup());
+		if (dt == null) return;
+		updateNode(dt, element.getIndex(), dt.decode(element.getValue()), element.getQuality());
+	}
+	
+	private void updateNode(final DataType type, final int index, double value, int quality) {
+		Node pointNode = points.get(type, index);
+		if (pointNode != null) {
+			publish(pointNode, type, index, value, quality);
+		} else if (lazy) {
+			storeUnmaterialized(type, index, value, quality);
+		} else {
+			createPointNode(type, index, value, quality);
+		}
+	}
+	
+	/**
+	 * In lazy mode a point only gets a node once a client lists its range folder. Until then
+	 * its value is kept in the point table only.
+	 */
+	private synchronized void storeUnmaterialized(DataType type, int index, double value, int quality) {
+		Node pointNode = points.get(type, index);
+		if (pointNode != null) {
+			publish(pointNode, type, index, value, quality);
+			return;
+		}
+		boolean known = points.hasValue(type, index);
+		if (!filter.accept(points, type, index, value)) return;
+		metrics.pointUpdated();
+		points.putValue(type, index, value);
+		points.setQuality(type, index, quality);
+		record(type, index, value, quality);
+		if (!known) getRangeNode(type, index);
+	}
+	
+	private Node getRangeNode(final DataType type, int index) {
+		final int lo = index - index % RANGE_SIZE;
+		String name = Integer.toString(lo) + "-" + Integer.toString(lo + RANGE_SIZE - 1);
+		Node dataNode = getDataNode(type);
+		Node rangeNode = dataNode.getChild(name);
+		if (rangeNode == null) {
+			rangeNode = dataNode.createChild(name).build();
+			rangeNode.setSerializable(false);
+			rangeNode.getListener().setOnListHandler(new Handler<Node>() {
+				public void handle(Node event) {
+					materializeRange(type, lo);
+				}
+			});
+		}
+		return rangeNode;
+	}
+	
+	private synchronized void materializeRange(DataType type, int lo) {
+		for (int i = lo; i < lo + RANGE_SIZE; i++) {
+			if (points.get(type, i) == null && points.hasValue(type, i)) materialize(type, i);
+		}
+	}
+	
+	private synchronized Node materialize(DataType type, int index) {
+		Node pointNode = points.get(type, index);
+		if (pointNode != null) return pointNode;
+		boolean stale = points.isStale(type, index);
+		pointNode = buildPointNode(getRangeNode(type, index), type, index, points.getValue(type, index));
+		if (stale) markStale(pointNode, type, index);
+		return pointNode;
+	}
+	
+	/**
+	 * Shows that the point's value was restored and has not been read since. The first value
+	 * read clears it; see publish.
+	 */
+	private void markStale(Node pointNode, DataType type, int index) {
+		points.setStale(type, index);
+		pointNode.setAttribute(STALE_ATTR, new Value(true));
+	}
+	
+	private void clearPointNodes() {
+		publisher.clear();
+		points.clear();
+		for (DataType type: DataType.values()) {
+			node.removeChild(type.nodeName);
+		}
+		binode = dinode = ainode = cinode = bonode = aonode = null;
+	}
+	
+	/**
+	 * Only records the value; the point's node is updated by the next flush of the publisher.
+	 */
+	private void publish(Node pointNode, DataType type, int index, double value, int quality) {
+		if (!filter.accept(points, type, index, value)) return;
+		metrics.pointUpdated();
+		if (points.setValue(type, index, value)) pointNode.removeAttribute(STALE_ATTR);
+		points.setQuality(type, index, quality);
+		publisher.mark(type, index);
+		record(type, index, value, quality);
+	}
+	
+	/**
+	 * Keeps an accepted value in local history and, while the broker is away, in the
+	 * link's offline buffer.
+	 */
+	private void record(DataType type, int index, double value, int quality) {
+		HistoryStore h = history;
+		UpdateJournal journal = link.getJournal();
+		if (h == null && !journal.isRecording()) return;
+		long now = System.currentTimeMillis();
+		if (h != null) h.record(type, index, now, value);
+		journal.record(node.getName(), type, index, now, value, quality);
+	}
+	
+	/**
+	 * Replays an update buffered during a broker outage, either onto the point's node with
+	 * its original time, or into local history.
+	 */
+	void replay(DataType type, int index, long time, double value, boolean asHistory) {
+		if (asHistory) {
+			HistoryStore h = history;
+			if (h != null) h.merge(type, index, time, value);
+			return;
+		}
+		Node pointNode = points.get(type, index);
+		if (pointNode == null) return;
+		Value v = type.toValue(value);
+		v.setTime(time);
+		pointNode.setValue(v);
+	}
+	
+	/**
+	 * Publishes the point updates made so far, as the end of a request does.
+	 */
+	void flushUpdates() {
+		publisher.requestFlush();
+	}
+	
+	/**
+	 * Called once replay is over for each point replayed, so it ends up with its current value.
+	 */
+	void replayed(DataType type, int index) {
+		if (points.get(type, index) != null) publisher.mark(type, index);
+	}
+	
+	void replayDone() {
+		publisher.requestFlush();
+	}
+	
+	private synchronized void createPointNode(DataType type, int index, double value, int quality) {
+		Node pointNode = points.get(type, index);
+		if (pointNode != null) {
+			publish(pointNode, type, index, value, quality);
+			return;
+		}
+		String pointName = type.toString() + " " + Integer.toString(index);
+		Node dataNode = getDataNode(type);
+		pointNode = dataNode.getChild(pointName);
+		if (pointNode != null) {
+			points.put(type, index, pointNode);
+			publish(pointNode, type, index, value, quality);
+		} else {
+			buildPointNode(dataNode, type, index, value);
+			metrics.pointUpdated();
+			points.setQuality(type, index, quality);
+			record(type, index, value, quality);
+		}
+	}
+	
+	private Node buildPointNode(Node parent, final DataType type, final int index, double value) {
+		String pointName = type.toString() + " " + Integer.toString(index);
+		Node pointNode = parent.createChild(pointName).setValueType(type.getValueType()).setValue(type.toValue(value)).build();
+		points.put(type, index, pointNode);
+		points.setValue(type, index, value);
+		applyDeadbandAttributes(pointNode, type, index);
+		makeGetHistoryAction(pointNode, type, index);
+		pointNode.getListener().setOnSubscribeHandler(new Handler<Node>() {
+			public void handle(Node event) {
+				subscribe(type, index);
+			}
+		});
+		pointNode.getListener().setOnUnsubscribeHandler(new Handler<Node>() {
+			public void handle(Node event) {
+				unsubscribe(type, index);
+			}
+		});
+		if (type == DataType.BO || type == DataType.AO) {
+			pointNode.setWritable(Writable.WRITE);
+			pointNode.getListener().setValueHandler(new Handler<ValuePair>() {
+				public void handle(ValuePair event) {
+					if (!event.isFromExternalSource()) return;
+					Value val = event.getCurrent();
+	        		if (!val.equals(event.getPrevious())) handleSet(type, index, val);
+				}
+			});
+		}
+		return pointNode;
+	}
+	
+	/**
+	 * Writes are batched: they are merged into the pending control request, or start a new one
+	 * if none is queued.
+	 */
+	private void handleSet(DataType type, int index, Value val) {
+		if (type != DataType.AO && type != DataType.BO) return;
+		controls.put(type, index, val);
+		submitControls();
+	}
+	
+	private void submitControls() {
+		requests.submit(new DnpRequest(DnpRequest.Priority.CONTROL, CONTROL_KEY) {
+			private ControlBatch.Controls taken;
+			
+			Buffer build(DNPUser user) {
+				taken = controls.take();
+				if (taken == null) throw new IllegalStateException("No controls pending");
+				return taken.build(user, selectBeforeOperate ? AppFeatures.SELECT : AppFeatures.DIRECT_OPERATE);
+			}
+			
+			@Override
+			void completed(long millis) {
+				if (!selectBeforeOperate) controlsDone();
+			}
+			
+			@Override
+			void failed(Exception e) {
+				LOGGER.debug("" ,e);
+				if (taken != null) {
+					controlsDone();
+				} else {
+					// cancelled before it was sent, so the writes are dropped along with it
+					controls.clear();
+				}
+			}
+			
+			@Override
+			DnpRequest next() {
+				if (!selectBeforeOperate || taken == null) return null;
+				final ControlBatch.Controls selected = taken;
+				return new DnpRequest(DnpRequest.Priority.CONTROL, null) {
+					Buffer build(DNPUser user) {
+						return selected.build(user, AppFeatures.OPERATE);
+					}
+					
+					@Override
+					void completed(long millis) {
+						controlsDone();
+					}
+					
+					@Override
+					void failed(Exception e) {
+						LOGGER.debug("" ,e);
+						controlsDone();
+					}
+				};
+			}
+		});
+	}
+	
+	/**
+	 * Called once a control request is finished with, whether or not it succeeded. Writes that
+	 * came in while it was pending are sent next, and then the written outputs are read back.
+	 */
+	private void controlsDone() {
+		if (!controls.isEmpty()) {
+			submitControls();
+		} else if (state == LinkState.OFFLINE) {
+			controls.clear();
+		} else if (!readbackRange) {
+			// the new values will be reported as events
+			controls.clear();
+		} else if (controls.hasReadback()) {
+			requests.submit(new DnpRequest(DnpRequest.Priority.CONTROL, READBACK_KEY) {
+				Buffer build(DNPUser user) throws Exception {
+					return controls.takeReadback(user);
+				}
+				
+				@Override
+				void failed(Exception e) {
+					LOGGER.debug("", e);
+				}
+			});
+		}
+	}
+	
+	private Node getDataNode(DataType type) {
+		switch(type) {
+		case BI: {
+			if (binode == null) binode = node.createChild(type.nodeName).build();
+			return binode;
+		}
+		case DI: {
+			if (dinode == null) dinode = node.createChild(type.nodeName).build();
+			return dinode;
+		}
+		case AI: {
+			if (ainode == null) ainode = node.createChild(type.nodeName).build();
+			return ainode;
+		}
+		case CI: {
+			if (cinode == null) cinode = node.createChild(type.nodeName).build();
+			return cinode;
+		}
+		case BO: {
+			if (bonode == null) bonode = node.createChild(type.nodeName).build();
+			return bonode;
+		}
+		case AO: {
+			if (aonode == null) aonode = node.createChild(type.nodeName).build();
+			return aonode;
+		}
+		}
+		return null;
+	}
+	
+	private void subscribe(DataType type, int index) {
+		if (subscribed.add(type, index)) startPoll();
+	}
+	
+	private void unsubscribe(DataType type, int index) {
+		if (subscribed.remove(type, index)) stopPoll();
+	}
+	
+	private void startPoll() {
+		if (future != null) return;
+		if (unsolicited) {
+			// events are reported by the outstation, so only a slow integrity poll is needed
+			pollInterval = node.getAttribute("Static Polling Interval").getNumber().longValue();
+			discover();
+			future = link.getPollScheduler().schedule(new Runnable() {
+				public void run() {
+					if (state == LinkState.OFFLINE) return;
+					if (!staticRead()) link.getPollScheduler().recordSkipped();
+				}
+			}, pollInterval);
+			return;
+		}
+		// tick at the greatest common divisor of the class intervals, so that each class
+		// is due every classTicks[i] ticks and coinciding classes are due on the same tick
+		long tick = 0;
+		long shortest = Long.MAX_VALUE;
+		for (long interval: classIntervals) {
+			if (interval <= 0) continue;
+			tick = gcd(tick, interval);
+			shortest = Math.min(shortest, interval);
+		}
+		if (tick == 0) {
+			tick = integrityInterval;
+			shortest = integrityInterval;
+		}
+		tick = Math.max(tick, MIN_TICK);
+		final long[] classTicks = new long[classIntervals.length];
+		for (int i = 0; i < classIntervals.length; i++) {
+			classTicks[i] = classIntervals[i] > 0 ? Math.max(1, Math.round((double) classIntervals[i] / tick)) : 0;
+		}
+		pollInterval = shortest;
+		future = link.getPollScheduler().schedule(new Runnable() {
+			private long count = 0;
+			
+			public void run() {
+				if (state == LinkState.OFFLINE) return;
+				long n = count++;
+				// the static polling interval is only a safety net; integrity polls are
+				// otherwise requested by checkIin
+				PollScheduler scheduler = link.getPollScheduler();
+				if (integrityDue) {
+					if (!discover()) scheduler.recordSkipped();
+				} else if (System.currentTimeMillis() - lastStatic >= integrityInterval) {
+					if (!staticRead()) scheduler.recordSkipped();
+				}
+				// the event classes due are read too; the queue orders them with a static read
+				int due = 0;
+				for (int i = 0; i < classTicks.length; i++) {
+					if (classTicks[i] > 0 && n % classTicks[i] == 0) due |= 1 << i;
+				}
+				if (due != 0 && !update(due)) scheduler.recordSkipped();
+			}
+		}, tick);
+	}
+	
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+	
+	private void stopPoll() {
+		if (future != null) future.cancel(false);
+		future = null;
+		if (unsolicited) setUnsolicited(false);
+	}
+	
+	
+
+}
@@ -0,0 +1,54 @@
+package dnp3;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.org.scadabr.dnp34j.master.common.utils.Buffer;
+import br.org.scadabr.dnp34j.master.session.DNPUser;
+
+/**
+ * A request waiting in a {@link RequestQueue}. The frame is built only when the request
+ * is about to be sent, because dnp34j stamps the application sequence number at build time.
+ */
+abstract class DnpRequest implements Comparable<DnpRequest> {
+
+	enum Priority {
+		CONTROL, EVENT_POLL, INTEGRITY_POLL
+	}
+
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+
+	final Priority priority;
+	final String key;
+	private final long seq = SEQUENCE.getAndIncrement();
+
+	/**
+	 * @param key requests with the same non-null key are coalesced while one is pending
+	 */
+	DnpRequest(Priority priority, String key) {
+		this.priority = priority;
+		this.key = key;
+	}
+
+	abstract Buffer build(DNPUser user) throws Exception;
+
+	void completed(long millis) {
+	}
+
+	void failed(Exception e) {
+	}
+
+	/**
+	 * @return a request to send straight after this one completes, with nothing else sent in
+	 * between, or null. Used for the operate that follows a select.
+	 */
+	DnpRequest next() {
+		return null;
+	}
+
+	public int compareTo(DnpRequest o) {
+		int c = priority.compareTo(o.priority);
+		if (c != 0) return c;
+		return seq < o.seq ? -1 : (seq == o.seq ? 0 : 1);
+	}
+
+}
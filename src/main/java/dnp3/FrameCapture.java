@@ -0,0 +1,123 @@
+package dnp3;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import br.org.scadabr.dnp34j.master.layers.physical.PhyLayer;
+
+/**
+ * Splits the bytes going through a connection's streams back into link frames, and records
+ * each one in the {@link FrameRing} of the outstation it was sent to or came from, going by
+ * the frame's destination or source address. Installed like {@link ByteCounter}. Frames are
+ * put together in a buffer per direction, so nothing is allocated per frame.
+ */
+class FrameCapture {
+
+	private final int[] addresses;
+	private final DnpOutstation[] stations;
+	private final Assembler incoming = new Assembler(false);
+	private final Assembler outgoing = new Assembler(true);
+
+	/**
+	 * @param addresses the connection's address list, master first
+	 * @param stations the outstation for each address after the master's
+	 */
+	FrameCapture(int[] addresses, DnpOutstation[] stations) {
+		this.addresses = addresses;
+		this.stations = stations;
+	}
+
+	void install(PhyLayer phy) {
+		final InputStream is = phy.getInputStream();
+		final OutputStream os = phy.getOutputStream();
+		if (is != null) {
+			phy.setInputStream(new FilterInputStream(is) {
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					if (b >= 0) incoming.add(b);
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = super.read(b, off, len);
+					if (n > 0) incoming.add(b, off, n);
+					return n;
+				}
+			});
+		}
+		if (os != null) {
+			phy.setOutputStream(new FilterOutputStream(os) {
+				@Override
+				public void write(int b) throws IOException {
+					os.write(b);
+					outgoing.add(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					// FilterOutputStream would write this a byte at a time
+					os.write(b, off, len);
+					outgoing.add(b, off, len);
+				}
+			});
+		}
+	}
+
+	private FrameRing ringFor(int address) {
+		for (int i = 1; i < addresses.length && i < stations.length; i++) {
+			if (addresses[i] == address && stations[i] != null) return stations[i].frames;
+		}
+		return null;
+	}
+
+	/**
+	 * Collects one direction's bytes until a whole frame is in: 0x05 0x64, a length byte
+	 * counting 5 header bytes and the user data, then the rest of the header and the user
+	 * data with a CRC after the header and after every 16 bytes of data.
+	 */
+	private class Assembler {
+		private final boolean sent;
+		private final byte[] frame = new byte[FrameRing.MAX_FRAME];
+		private int pos = 0;
+		private int expected = 0;
+
+		Assembler(boolean sent) {
+			this.sent = sent;
+		}
+
+		synchronized void add(byte[] b, int off, int len) {
+			for (int i = off; i < off + len; i++) {
+				add(b[i] & 0xFF);
+			}
+		}
+
+		synchronized void add(int b) {
+			if (pos == 0 && b != 0x05) return;
+			if (pos == 1 && b != 0x64) {
+				pos = b == 0x05 ? 1 : 0;
+				return;
+			}
+			frame[pos++] = (byte) b;
+			if (pos == 3) {
+				int data = b - 5;
+				if (data < 0) {
+					pos = 0;
+					return;
+				}
+				expected = 10 + data + 2 * ((data + 15) / 16);
+			}
+			if (pos < 3 || pos < expected) return;
+			// outstations are the destination of what is sent and the source of what is received
+			int at = sent ? 4 : 6;
+			FrameRing ring = ringFor((frame[at] & 0xFF) | (frame[at + 1] & 0xFF) << 8);
+			if (ring != null) ring.frame(sent, frame, pos, System.currentTimeMillis());
+			pos = 0;
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+package dnp3;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.dsa.iot.dslink.node.actions.table.Row;
+import org.dsa.iot.dslink.node.actions.table.Table;
+import org.dsa.iot.dslink.node.value.Value;
+
+/**
+ * The last SIZE link frames sent to and received from one outstation, and the requests they
+ * belonged to, for the "dump frames" action. Everything is held in arrays allocated up front,
+ * so recording costs a copy and never allocates. Received frames are stamped with the time
+ * since the last frame sent, and requests with their round trip time.
+ */
+class FrameRing {
+
+	static final int SIZE = 64;
+	// 10 header bytes, 250 user data bytes and a 2 byte CRC for every 16 of them
+	static final int MAX_FRAME = 292;
+
+	private static final byte SENT = 0;
+	private static final byte RECEIVED = 1;
+	private static final byte REQUEST = 2;
+	private static final String[] KINDS = {"sent", "received", "request"};
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private final byte[] data = new byte[SIZE * MAX_FRAME];
+	private final int[] lengths = new int[SIZE];
+	private final long[] times = new long[SIZE];
+	private final long[] millis = new long[SIZE];
+	private final byte[] kinds = new byte[SIZE];
+	private final String[] keys = new String[SIZE];
+	private final String[] outcomes = new String[SIZE];
+	private int next = 0;
+	private int size = 0;
+	private long lastSent = 0;
+
+	synchronized void frame(boolean sent, byte[] frame, int len, long time) {
+		int i = next;
+		len = Math.min(len, MAX_FRAME);
+		System.arraycopy(frame, 0, data, i * MAX_FRAME, len);
+		lengths[i] = len;
+		times[i] = time;
+		kinds[i] = sent ? SENT : RECEIVED;
+		millis[i] = sent || lastSent == 0 ? 0 : time - lastSent;
+		keys[i] = null;
+		outcomes[i] = null;
+		if (sent) lastSent = time;
+		advance();
+	}
+
+	/**
+	 * @param outcome null if the request succeeded, otherwise why it failed
+	 */
+	synchronized void request(String key, long start, long rtt, String outcome) {
+		int i = next;
+		lengths[i] = 0;
+		times[i] = start;
+		kinds[i] = REQUEST;
+		millis[i] = rtt;
+		keys[i] = key;
+		outcomes[i] = outcome;
+		advance();
+	}
+
+	private void advance() {
+		next = (next + 1) % SIZE;
+		if (size < SIZE) size++;
+	}
+
+	/**
+	 * Adds a row per entry, oldest first: time, kind, milliseconds, length and either the
+	 * frame in hex or the request's key and outcome.
+	 */
+	void dump(Table table) {
+		byte[] copy;
+		int[] lens;
+		long[] ts;
+		long[] ms;
+		byte[] ks;
+		String[] ky;
+		String[] oc;
+		int first;
+		int n;
+		synchronized (this) {
+			copy = data.clone();
+			lens = lengths.clone();
+			ts = times.clone();
+			ms = millis.clone();
+			ks = kinds.clone();
+			ky = keys.clone();
+			oc = outcomes.clone();
+			n = size;
+			first = (next - size + SIZE) % SIZE;
+		}
+		SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+		for (int j = 0; j < n; j++) {
+			int i = (first + j) % SIZE;
+			String detail;
+			if (ks[i] == REQUEST) {
+				detail = (ky[i] != null ? ky[i] : "other") + ": " + (oc[i] != null ? oc[i] : "ok");
+			} else {
+				detail = hex(copy, i * MAX_FRAME, lens[i]);
+			}
+			table.addRow(Row.make(new Value(fmt.format(new Date(ts[i]))), new Value(KINDS[ks[i]]),
+					new Value(ms[i]), new Value(lens[i]), new Value(detail)));
+		}
+	}
+
+	private static String hex(byte[] b, int off, int len) {
+		char[] out = new char[Math.max(0, len * 3 - 1)];
+		for (int i = 0; i < len; i++) {
+			int v = b[off + i] & 0xFF;
+			if (i > 0) out[i * 3 - 1] = ' ';
+			out[i * 3] = HEX[v >>> 4];
+			out[i * 3 + 1] = HEX[v & 0x0F];
+		}
+		return new String(out);
+	}
+
+}
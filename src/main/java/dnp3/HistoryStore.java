@@ -0,0 +1,439 @@
+package dnp3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.dsa.iot.dslink.node.actions.ActionResult;
+import org.dsa.iot.dslink.node.actions.table.Row;
+import org.dsa.iot.dslink.node.actions.table.Table;
+import org.dsa.iot.dslink.node.value.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local history of one outstation's points. Recent samples are held in a {@link PointHistory}
+ * ring per point. They are also appended to segment files under history/&lt;outstation&gt;, which
+ * are replayed into the rings when the outstation starts. A segment is a header (magic, base
+ * time) followed by 15 byte records: type, index, time delta from the base, value. Only the
+ * newest MAX_SEGMENTS segments are kept. Samples are recorded on the thread handling a
+ * response, so they are only buffered there and written from the scheduler, every BATCH
+ * samples and on flush. While a write falls behind, at most MAX_PENDING samples are buffered
+ * and later ones are kept in the rings only.
+ */
+class HistoryStore {
+	private static final Logger LOGGER = LoggerFactory.getLogger(HistoryStore.class);
+
+	static final String ENABLED_ATTR = "Local History";
+	static final String SIZE_ATTR = "History Size";
+	// those of the historians' getHistory profile
+	static final String[] ROLLUPS = {"none", "and", "or", "avg", "count", "delta", "first", "last", "max", "min", "sum"};
+
+	private static final File ROOT = new File("history");
+	private static final int MAGIC = 0x444E5048;
+	private static final long MAX_SEGMENT_BYTES = 1 << 20;
+	private static final int MAX_SEGMENTS = 16;
+	private static final int HEADER_BYTES = 12;
+	private static final int RECORD_BYTES = 15;
+	private static final int BATCH = 4096;
+	private static final int MAX_PENDING = 65536;
+
+	private final File dir;
+	private final int capacity;
+	private final PollScheduler scheduler;
+	private final PointHistory[][] histories = new PointHistory[DataType.values().length][];
+
+	// guarded by this; spare is only used by write
+	private Batch pending = new Batch();
+	private Batch spare = new Batch();
+	private int dropped = 0;
+	private boolean closed = false;
+	private final AtomicBoolean writeQueued = new AtomicBoolean(false);
+
+	// guards the segment file, so that writing it does not hold up record
+	private final Object io = new Object();
+	private DataOutputStream out;
+	private long segmentBase;
+	private long segmentBytes;
+
+	private final Runnable writeTask = new Runnable() {
+		public void run() {
+			writeQueued.set(false);
+			write();
+		}
+	};
+
+	HistoryStore(String name, int capacity, PollScheduler scheduler) {
+		this.dir = dirFor(name);
+		this.capacity = capacity;
+		this.scheduler = scheduler;
+		for (int i = 0; i < histories.length; i++) {
+			histories[i] = new PointHistory[0];
+		}
+	}
+
+	/**
+	 * Samples waiting to be written to the segment file.
+	 */
+	private static class Batch {
+		byte[] types = new byte[0];
+		int[] indexes = new int[0];
+		long[] times = new long[0];
+		double[] values = new double[0];
+		int size = 0;
+
+		/**
+		 * @return false if the batch already holds MAX_PENDING samples
+		 */
+		boolean add(DataType type, int index, long time, double value) {
+			if (size == types.length) {
+				if (size >= MAX_PENDING) return false;
+				int cap = Math.max(256, size << 1);
+				types = Arrays.copyOf(types, cap);
+				indexes = Arrays.copyOf(indexes, cap);
+				times = Arrays.copyOf(times, cap);
+				values = Arrays.copyOf(values, cap);
+			}
+			types[size] = (byte) type.ordinal();
+			indexes[size] = index;
+			times[size] = time;
+			values[size] = value;
+			size++;
+			return true;
+		}
+	}
+
+	private static File dirFor(String name) {
+		return new File(ROOT, name.replaceAll("[^A-Za-z0-9._-]", "_"));
+	}
+
+	/**
+	 * Moves an outstation's segments to follow a rename. The store must be closed.
+	 */
+	static void rename(String from, String to) {
+		File src = dirFor(from);
+		File dst = dirFor(to);
+		if (!src.isDirectory() || src.equals(dst) || dst.exists()) return;
+		if (!src.renameTo(dst)) LOGGER.debug("Could not rename " + src + " to " + dst);
+	}
+
+	synchronized PointHistory get(DataType type, int index) {
+		PointHistory[] arr = histories[type.ordinal()];
+		if (index < 0 || index >= arr.length) return null;
+		return arr[index];
+	}
+
+	private synchronized PointHistory getOrCreate(DataType type, int index) {
+		PointHistory[] arr = histories[type.ordinal()];
+		if (index >= arr.length) {
+			arr = Arrays.copyOf(arr, Math.max(64, Integer.highestOneBit(index) << 1));
+			histories[type.ordinal()] = arr;
+		}
+		PointHistory h = arr[index];
+		if (h == null) {
+			h = new PointHistory(capacity);
+			arr[index] = h;
+		}
+		return h;
+	}
+
+	void record(DataType type, int index, long time, double value) {
+		getOrCreate(type, index).add(time, value);
+		boolean full;
+		synchronized (this) {
+			if (closed) return;
+			if (!pending.add(type, index, time, value)) dropped++;
+			full = pending.size >= BATCH;
+		}
+		if (full && writeQueued.compareAndSet(false, true)) scheduler.execute(writeTask);
+	}
+
+	/**
+	 * Records a sample only if it is newer than everything the point's ring holds, so that
+	 * replaying samples already recorded does nothing.
+	 */
+	void merge(DataType type, int index, long time, double value) {
+		if (time <= getOrCreate(type, index).getLastTime()) return;
+		record(type, index, time, value);
+	}
+
+	/**
+	 * Appends the buffered samples to the segment file. Samples recorded meanwhile go to the
+	 * other batch.
+	 */
+	private void write() {
+		synchronized (io) {
+			Batch batch;
+			int lost;
+			synchronized (this) {
+				batch = pending;
+				pending = spare;
+				spare = batch;
+				lost = dropped;
+				dropped = 0;
+			}
+			if (lost > 0) LOGGER.debug("History of " + dir + " fell behind, " + lost + " samples not written");
+			try {
+				for (int i = 0; i < batch.size; i++) {
+					append(batch.types[i], batch.indexes[i], batch.times[i], batch.values[i]);
+				}
+			} catch (IOException e) {
+				LOGGER.debug("", e);
+				closeSegment();
+			}
+			batch.size = 0;
+		}
+	}
+
+	private void append(int type, int index, long time, double value) throws IOException {
+		long delta = time - segmentBase;
+		if (out == null || segmentBytes >= MAX_SEGMENT_BYTES || delta < 0 || delta > Integer.MAX_VALUE) {
+			closeSegment();
+			openSegment(time);
+			delta = 0;
+		}
+		out.writeByte(type);
+		out.writeShort(index);
+		out.writeInt((int) delta);
+		out.writeDouble(value);
+		segmentBytes += RECORD_BYTES;
+	}
+
+	private void openSegment(long base) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+		File[] segments = listSegments();
+		for (int i = 0; i <= segments.length - MAX_SEGMENTS; i++) {
+			if (!segments[i].delete()) LOGGER.debug("Could not delete " + segments[i]);
+		}
+		File f = new File(dir, String.format("%016x.seg", base));
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		out.writeInt(MAGIC);
+		out.writeLong(base);
+		segmentBase = base;
+		segmentBytes = HEADER_BYTES;
+	}
+
+	private void closeSegment() {
+		if (out == null) return;
+		try {
+			out.close();
+		} catch (IOException e) {
+			LOGGER.debug("", e);
+		}
+		out = null;
+	}
+
+	private File[] listSegments() {
+		File[] files = dir.listFiles();
+		if (files == null) return new File[0];
+		int n = 0;
+		for (File f: files) {
+			if (f.getName().endsWith(".seg")) files[n++] = f;
+		}
+		files = Arrays.copyOf(files, n);
+		// names are zero-padded hex base times, so this is oldest first
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * Replays the segments on disk into the rings. A truncated last record is ignored.
+	 */
+	synchronized void load() {
+		DataType[] types = DataType.values();
+		for (File f: listSegments()) {
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+				if (in.readInt() != MAGIC) continue;
+				long base = in.readLong();
+				while (true) {
+					int t = in.readUnsignedByte();
+					int index = in.readUnsignedShort();
+					long time = base + in.readInt();
+					double value = in.readDouble();
+					if (t < types.length) getOrCreate(types[t], index).add(time, value);
+				}
+			} catch (EOFException e) {
+				// end of segment
+			} catch (IOException e) {
+				LOGGER.debug("", e);
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+					} catch (IOException e) {
+						LOGGER.debug("", e);
+					}
+				}
+			}
+		}
+	}
+
+	void flush() {
+		write();
+		synchronized (io) {
+			if (out == null) return;
+			try {
+				out.flush();
+			} catch (IOException e) {
+				LOGGER.debug("", e);
+				closeSegment();
+			}
+		}
+	}
+
+	void close() {
+		synchronized (this) {
+			closed = true;
+		}
+		write();
+		synchronized (io) {
+			closeSegment();
+		}
+	}
+
+	void delete() {
+		synchronized (this) {
+			closed = true;
+			pending.size = 0;
+		}
+		synchronized (io) {
+			closeSegment();
+			for (File f: listSegments()) {
+				if (!f.delete()) LOGGER.debug("Could not delete " + f);
+			}
+			if (!dir.delete()) LOGGER.debug("Could not delete " + dir);
+		}
+	}
+
+	/**
+	 * Handles a getHistory invocation on a point node. Timerange is "start/end" in ISO 8601 and
+	 * defaults to everything held. Interval is like "30s", "5m", "1h" or "1d", or "none".
+	 */
+	void getHistory(ActionResult event, DataType type, int index) {
+		long from = Long.MIN_VALUE;
+		long to = Long.MAX_VALUE;
+		Value range = event.getParameter("Timerange");
+		if (range != null && range.getString() != null && !range.getString().trim().isEmpty()) {
+			String[] parts = range.getString().split("/");
+			try {
+				from = parseTime(parts[0]);
+				if (parts.length > 1) to = parseTime(parts[1]);
+			} catch (ParseException e) {
+				// thrown out of the handler, this fails the invocation instead of looking like no data
+				throw new IllegalArgumentException("Invalid Timerange: " + range.getString());
+			}
+		}
+		Value iv = event.getParameter("Interval");
+		long interval = parseInterval(iv != null ? iv.getString() : null);
+		if (interval < 0) throw new IllegalArgumentException("Invalid Interval: " + iv.getString());
+		Value rv = event.getParameter("Rollup");
+		String rollup = rv != null && rv.getString() != null ? rv.getString() : "none";
+		if (!Arrays.asList(ROLLUPS).contains(rollup)) throw new IllegalArgumentException("Invalid Rollup: " + rollup);
+
+		PointHistory history = get(type, index);
+		if (history == null) return;
+		int size = history.size();
+		long[] times = new long[size];
+		double[] values = new double[size];
+		int n = history.read(from, to, times, values);
+
+		Table table = event.getTable();
+		SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+		if (interval <= 0 || "none".equals(rollup)) {
+			for (int i = 0; i < n; i++) {
+				table.addRow(Row.make(new Value(fmt.format(new Date(times[i]))), type.toValue(values[i])));
+			}
+			return;
+		}
+		// buckets are aligned to the start of the range, or to the epoch if it has none
+		long origin = from == Long.MIN_VALUE ? 0 : from;
+		int i = 0;
+		while (i < n) {
+			long offset = (times[i] - origin) % interval;
+			if (offset < 0) offset += interval;
+			long bucket = times[i] - offset;
+			int j = i;
+			while (j < n && times[j] < bucket + interval) j++;
+			table.addRow(Row.make(new Value(fmt.format(new Date(bucket))), rollup(type, rollup, values, i, j)));
+			i = j;
+		}
+	}
+
+	private static Value rollup(DataType type, String rollup, double[] values, int start, int end) {
+		if ("first".equals(rollup)) return type.toValue(values[start]);
+		if ("last".equals(rollup)) return type.toValue(values[end - 1]);
+		if ("count".equals(rollup)) return new Value(end - start);
+		if ("delta".equals(rollup)) return new Value(values[end - 1] - values[start]);
+		if ("and".equals(rollup) || "or".equals(rollup)) {
+			boolean and = "and".equals(rollup);
+			boolean acc = and;
+			for (int i = start; i < end; i++) {
+				if (and) acc &= values[i] != 0;
+				else acc |= values[i] != 0;
+			}
+			return new Value(acc);
+		}
+		double acc = "min".equals(rollup) ? Double.POSITIVE_INFINITY :
+			"max".equals(rollup) ? Double.NEGATIVE_INFINITY : 0;
+		for (int i = start; i < end; i++) {
+			if ("min".equals(rollup)) acc = Math.min(acc, values[i]);
+			else if ("max".equals(rollup)) acc = Math.max(acc, values[i]);
+			else acc += values[i];
+		}
+		if ("avg".equals(rollup)) return new Value(acc / (end - start));
+		if ("sum".equals(rollup)) return new Value(acc);
+		return type.toValue(acc);
+	}
+
+	private static long parseTime(String s) throws ParseException {
+		s = s.trim();
+		String[] patterns = {"yyyy-MM-dd'T'HH:mm:ss.SSSXXX", "yyyy-MM-dd'T'HH:mm:ssXXX", "yyyy-MM-dd'T'HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss"};
+		for (String pattern: patterns) {
+			try {
+				return new SimpleDateFormat(pattern).parse(s).getTime();
+			} catch (ParseException e) {
+				// try the next one
+			}
+		}
+		throw new ParseException(s, 0);
+	}
+
+	/**
+	 * @return the interval in milliseconds, 0 for none, or -1 if it is not valid
+	 */
+	private static long parseInterval(String s) {
+		if (s == null) return 0;
+		s = s.trim().toLowerCase();
+		if (s.isEmpty() || "none".equals(s) || "default".equals(s)) return 0;
+		if (s.length() < 2) return -1;
+		long unit;
+		switch (s.charAt(s.length() - 1)) {
+		case 's': unit = 1000; break;
+		case 'm': unit = 60 * 1000; break;
+		case 'h': unit = 60 * 60 * 1000; break;
+		case 'd': unit = 24 * 60 * 60 * 1000; break;
+		case 'w': unit = 7 * 24 * 60 * 60 * 1000; break;
+		default: return -1;
+		}
+		try {
+			long n = Long.parseLong(s.substring(0, s.length() - 1));
+			return n > 0 ? n * unit : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+}
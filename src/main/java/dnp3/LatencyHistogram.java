@@ -0,0 +1,55 @@
+package dnp3;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts of request round trip times in fixed buckets, so that recording is one atomic
+ * increment. Percentiles are reported as the upper bound of the bucket they fall in.
+ */
+class LatencyHistogram {
+
+	// upper bounds in milliseconds; the last bucket holds everything longer
+	private static final long[] BOUNDS = {
+		1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, Long.MAX_VALUE
+	};
+
+	private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length);
+
+	void record(long millis) {
+		int i = 0;
+		while (millis > BOUNDS[i]) i++;
+		counts.incrementAndGet(i);
+	}
+
+	long[] snapshot() {
+		long[] s = new long[BOUNDS.length];
+		for (int i = 0; i < s.length; i++) {
+			s[i] = counts.get(i);
+		}
+		return s;
+	}
+
+	/**
+	 * @param now a snapshot
+	 * @param then an earlier snapshot, or null to use everything in now
+	 * @param p between 0 and 1
+	 * @return the percentile of the samples recorded between the snapshots, in milliseconds,
+	 * or -1 if there were none. The open-ended last bucket reports its lower bound.
+	 */
+	static long percentile(long[] now, long[] then, double p) {
+		long total = 0;
+		for (int j = 0; j < now.length; j++) {
+			total += now[j] - (then != null ? then[j] : 0);
+		}
+		if (total == 0) return -1;
+		long rank = (long) Math.ceil(p * total);
+		long seen = 0;
+		int i;
+		for (i = 0; i < now.length - 1; i++) {
+			seen += now[i] - (then != null ? then[i] : 0);
+			if (seen >= rank) break;
+		}
+		return i < BOUNDS.length - 1 ? BOUNDS[i] : BOUNDS[i - 1];
+	}
+
+}
@@ -1,56 +1,68 @@
-package dnp3;
-
-import org.dsa.iot.dslink.DSLink;
-import org.dsa.iot.dslink.DSLinkFactory;
-import org.dsa.iot.dslink.DSLinkHandler;
-import org.dsa.iot.dslink.node.Node;
-import org.dsa.iot.dslink.node.NodeManager;
-import org.dsa.iot.dslink.serializer.Deserializer;
-import org.dsa.iot.dslink.serializer.Serializer;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-public class Main extends DSLinkHandler {
-
-	private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
-
-	public static void main(String[] args) {
-		DSLinkFactory.start(args, new Main());
-	}
-
-	@Override
-	public boolean isResponder() {
-		return true;
-	}
-
-	@Override
-	public void onResponderInitialized(DSLink link) {
-		LOGGER.info("Initialized");
-
-		NodeManager manager = link.getNodeManager();
-		Node superRoot = manager.getNode("/").getNode();
-		Serializer copyser = new Serializer(manager);
-		Deserializer copydeser = new Deserializer(manager);
-
-//		NodeBuilder b = superRoot.createChild("defs");
-//		b.setSerializable(false);
-//		b.setHidden(true);
-//		Node node = b.build();
-//
-//		b = node.createChild("profile");
-//		node = b.build();
-//
-//		b = node.createChild("getHistory_");
-//		Action act = new Action(Permission.READ, null);
-//		GetHistory.initProfile(act);
-//		b.setAction(act);
-//		b.build();
-
-		DnpLink.start(superRoot, copyser, copydeser);
-	}
-
-	@Override
-	public void onResponderConnected(DSLink link) {
-		LOGGER.info("Connected");
-	}
-}
+package dnp3;
+
+import org.dsa.iot.dslink.DSLink;
+import org.dsa.iot.dslink.DSLinkFactory;
+import org.dsa.iot.dslink.DSLinkHandler;
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.NodeBuilder;
+import org.dsa.iot.dslink.node.NodeManager;
+import org.dsa.iot.dslink.node.Permission;
+import org.dsa.iot.dslink.node.actions.Action;
+import org.dsa.iot.historian.stats.GetHistory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class Main extends DSLinkHandler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
+	
+	private volatile DnpLink dnpLink;
+
+	public static void main(String[] args) {
+		DSLinkFactory.start(args, new Main());
+	}
+
+	@Override
+	public boolean isResponder() {
+		return true;
+	}
+
+	@Override
+	public void onResponderInitialized(DSLink link) {
+		LOGGER.info("Initialized");
+
+		NodeManager manager = link.getNodeManager();
+		Node superRoot = manager.getNode("/").getNode();
+
+		// the profile of the points' getHistory actions, which trend widgets look for
+		NodeBuilder b = superRoot.createChild("defs");
+		b.setSerializable(false);
+		b.setHidden(true);
+		Node node = b.build();
+
+		b = node.createChild("profile");
+		node = b.build();
+
+		b = node.createChild(DnpOutstation.GET_HISTORY_PROFILE);
+		Action act = new Action(Permission.READ, null);
+		GetHistory.initProfile(act);
+		b.setAction(act);
+		b.build();
+
+		dnpLink = DnpLink.start(superRoot);
+	}
+
+	@Override
+	public void onResponderConnected(DSLink link) {
+		LOGGER.info("Connected");
+		DnpLink dl = dnpLink;
+		if (dl != null) dl.setConnected(true);
+	}
+
+	@Override
+	public void onResponderDisconnected(DSLink link) {
+		LOGGER.info("Disconnected");
+		DnpLink dl = dnpLink;
+		if (dl != null) dl.setConnected(false);
+	}
+}
@@ -0,0 +1,179 @@
+package dnp3;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+
+/**
+ * Request and update statistics of one outstation. Recording only touches atomic counters
+ * and {@link LatencyHistogram}s, so it is cheap enough to leave on. Every PUBLISH_INTERVAL
+ * the counters are snapshotted into a ring, and rates and percentiles are published under the
+ * outstation's "Metrics" node, computed over the last minute of snapshots.
+ */
+class OutstationMetrics {
+
+	static final String NODE_NAME = "Metrics";
+	static final long PUBLISH_INTERVAL = 10000;
+
+	// request kinds, by queue key; anything else is "other"
+	private static final String[] KINDS = {"integrity", "range", "event", "control", "readback", "other"};
+	private static final int CONTROL = 3;
+	private static final int OTHER = KINDS.length - 1;
+	private static final int WINDOW = (int) (60000 / PUBLISH_INTERVAL);
+
+	private static final int REQUESTS = 0;
+	private static final int FAILURES = 1;
+	private static final int TIMEOUTS = 2;
+	private static final int SENT = 3;
+	private static final int RECEIVED = 4;
+	private static final int UPDATES = 5;
+	private static final int POLLS = 6;
+	private static final int SUPPRESSED = 7;
+
+	private final LatencyHistogram[] latencies = new LatencyHistogram[KINDS.length];
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong updates = new AtomicLong();
+	private final AtomicLong polls = new AtomicLong();
+	private volatile long lastSuccess = 0;
+
+	// only touched by publish
+	private final long[][] counterRing = new long[WINDOW][];
+	private final long[][][] latencyRing = new long[WINDOW][][];
+	private final long[] timeRing = new long[WINDOW];
+	private int ringPos = 0;
+	private Node folder;
+
+	OutstationMetrics() {
+		for (int i = 0; i < latencies.length; i++) {
+			latencies[i] = new LatencyHistogram();
+		}
+	}
+
+	private static int kindOf(DnpRequest req) {
+		if (req.key != null) {
+			for (int i = 0; i < OTHER; i++) {
+				if (KINDS[i].equals(req.key)) return i;
+			}
+		}
+		return req.priority == DnpRequest.Priority.CONTROL ? CONTROL : OTHER;
+	}
+
+	void requestCompleted(DnpRequest req, long millis) {
+		requests.incrementAndGet();
+		latencies[kindOf(req)].record(millis);
+		if (req.priority != DnpRequest.Priority.CONTROL) {
+			polls.incrementAndGet();
+			lastSuccess = System.currentTimeMillis();
+		}
+	}
+
+	void requestFailed(boolean timeout) {
+		requests.incrementAndGet();
+		failures.incrementAndGet();
+		if (timeout) timeouts.incrementAndGet();
+	}
+
+	void bytes(long out, long in) {
+		sent.addAndGet(out);
+		received.addAndGet(in);
+	}
+
+	void pointUpdated() {
+		updates.incrementAndGet();
+	}
+
+	long getUpdates() {
+		return updates.get();
+	}
+
+	long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * @param kind one of the request kinds, such as "integrity" or "event"
+	 * @return a snapshot of the kind's latency histogram, as taken by {@link LatencyHistogram#snapshot()}
+	 */
+	long[] getLatencies(String kind) {
+		for (int i = 0; i < KINDS.length; i++) {
+			if (KINDS[i].equals(kind)) return latencies[i].snapshot();
+		}
+		return latencies[OTHER].snapshot();
+	}
+
+	/**
+	 * Updates the nodes under parent's "Metrics" node, creating them if need be.
+	 * @param suppressed the filter's running count of suppressed updates
+	 */
+	synchronized void publish(Node parent, long suppressed) {
+		if (folder == null || folder.getParent() != parent) {
+			folder = parent.getChild(NODE_NAME);
+			if (folder == null) folder = parent.createChild(NODE_NAME).build();
+			folder.setSerializable(false);
+		}
+		long now = System.currentTimeMillis();
+		long[] counters = {
+			requests.get(), failures.get(), timeouts.get(), sent.get(), received.get(),
+			updates.get(), polls.get(), suppressed
+		};
+		long[][] lat = new long[latencies.length][];
+		for (int i = 0; i < lat.length; i++) {
+			lat[i] = latencies[i].snapshot();
+		}
+		// the oldest snapshot in the ring, or none yet
+		int oldest = counterRing[ringPos] != null ? ringPos : 0;
+		long[] thenCounters = counterRing[oldest];
+		long[][] thenLat = latencyRing[oldest];
+		long elapsed = thenCounters != null ? now - timeRing[oldest] : 0;
+		counterRing[ringPos] = counters;
+		latencyRing[ringPos] = lat;
+		timeRing[ringPos] = now;
+		ringPos = (ringPos + 1) % WINDOW;
+
+		for (int i = 0; i < KINDS.length; i++) {
+			long[] then = thenLat != null ? thenLat[i] : null;
+			set(KINDS[i] + " p50 (ms)", LatencyHistogram.percentile(lat[i], then, 0.5));
+			set(KINDS[i] + " p99 (ms)", LatencyHistogram.percentile(lat[i], then, 0.99));
+		}
+		setDouble("Requests/min", perMinute(counters, thenCounters, REQUESTS, elapsed));
+		setDouble("Failures/min", perMinute(counters, thenCounters, FAILURES, elapsed));
+		setDouble("Timeouts/min", perMinute(counters, thenCounters, TIMEOUTS, elapsed));
+		setDouble("Suppressed Updates/min", perMinute(counters, thenCounters, SUPPRESSED, elapsed));
+		set("Bytes Sent", counters[SENT]);
+		set("Bytes Received", counters[RECEIVED]);
+		long dpolls = counters[POLLS] - (thenCounters != null ? thenCounters[POLLS] : 0);
+		long dupdates = counters[UPDATES] - (thenCounters != null ? thenCounters[UPDATES] : 0);
+		setDouble("Points Updated/poll", dpolls > 0 ? (double) dupdates / dpolls : 0);
+		long last = lastSuccess;
+		set("Seconds Since Last Poll", last > 0 ? (now - last) / 1000 : -1);
+	}
+
+	private static double perMinute(long[] now, long[] then, int i, long elapsed) {
+		if (then == null || elapsed <= 0) return 0;
+		return (now[i] - then[i]) * 60000.0 / elapsed;
+	}
+
+	private void set(String name, long value) {
+		node(name).setValue(new Value(value));
+	}
+
+	private void setDouble(String name, double value) {
+		node(name).setValue(new Value(Math.round(value * 100) / 100.0));
+	}
+
+	private Node node(String name) {
+		Node n = folder.getChild(name);
+		if (n == null) {
+			n = folder.createChild(name).setValueType(ValueType.NUMBER).setValue(new Value(0)).build();
+			n.setSerializable(false);
+		}
+		return n;
+	}
+
+}
@@ -0,0 +1,27 @@
+package dnp3;
+
+import br.org.scadabr.dnp34j.master.session.database.DataElement;
+import br.org.scadabr.dnp34j.master.session.database.Database;
+
+/**
+ * A dnp34j Database that stores nothing. The stock one keeps a ring of up to 128
+ * DataElements for every point it has seen, which nothing here reads back: every
+ * element is handed to the callback, and the current values live in each outstation's
+ * {@link PointTable}. Heap use is then bounded by the point count instead of by uptime.
+ */
+class PassThroughDatabase extends Database {
+
+	private volatile Handler handler;
+
+	@Override
+	public void setCallback(Handler handler) {
+		this.handler = handler;
+	}
+
+	@Override
+	public void writeRecord(DataElement element) {
+		Handler h = handler;
+		if (h != null) h.dataChanged(element);
+	}
+
+}
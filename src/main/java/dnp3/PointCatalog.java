@@ -0,0 +1,174 @@
+package dnp3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.value.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The points an outstation is known to have, with their last values, saved to
+ * catalog/&lt;outstation&gt;.cat so that its point tree can be rebuilt on startup without
+ * waiting for a poll. The file is a header (magic, count) followed by 19 byte records: type,
+ * index, time, value. It is written to a temporary file and renamed over the old one.
+ */
+class PointCatalog {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PointCatalog.class);
+
+	private static final File ROOT = new File("catalog");
+	private static final int MAGIC = 0x444E5043;
+
+	final byte[] types;
+	final int[] indexes;
+	final long[] times;
+	final double[] values;
+	final int size;
+
+	private PointCatalog(int size) {
+		this.size = size;
+		types = new byte[size];
+		indexes = new int[size];
+		times = new long[size];
+		values = new double[size];
+	}
+
+	private static File fileFor(String name) {
+		return new File(ROOT, name.replaceAll("[^A-Za-z0-9._-]", "_") + ".cat");
+	}
+
+	/**
+	 * Writes every point in the table. Points with a node keep the time of their node's value;
+	 * the others, which lazy mode has not given a node yet, get the current time.
+	 */
+	static void save(String name, PointTable points) {
+		PointCatalog cat = snapshot(points);
+		File f = fileFor(name);
+		File tmp = new File(ROOT, f.getName() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			if (!ROOT.isDirectory() && !ROOT.mkdirs()) throw new IOException("Cannot create " + ROOT);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeInt(cat.size);
+			for (int i = 0; i < cat.size; i++) {
+				out.writeByte(cat.types[i]);
+				out.writeShort(cat.indexes[i]);
+				out.writeLong(cat.times[i]);
+				out.writeDouble(cat.values[i]);
+			}
+			out.close();
+			out = null;
+			if (f.exists() && !f.delete()) throw new IOException("Could not replace " + f);
+			if (!tmp.renameTo(f)) throw new IOException("Could not rename " + tmp + " to " + f);
+		} catch (IOException e) {
+			LOGGER.debug("", e);
+			if (tmp.exists() && !tmp.delete()) LOGGER.debug("Could not delete " + tmp);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					LOGGER.debug("", e);
+				}
+			}
+		}
+	}
+
+	// holds the table's lock, so that it cannot grow or be cleared part way through
+	private static PointCatalog snapshot(PointTable points) {
+		synchronized (points) {
+			DataType[] types = DataType.values();
+			int count = 0;
+			for (DataType type: types) {
+				for (int i = 0; i < points.size(type); i++) {
+					if (points.get(type, i) != null || points.hasValue(type, i)) count++;
+				}
+			}
+			PointCatalog cat = new PointCatalog(count);
+			long now = System.currentTimeMillis();
+			int n = 0;
+			for (DataType type: types) {
+				for (int i = 0; i < points.size(type); i++) {
+					Node pointNode = points.get(type, i);
+					if (pointNode == null && !points.hasValue(type, i)) continue;
+					Value v = pointNode != null ? pointNode.getValue() : null;
+					cat.types[n] = (byte) type.ordinal();
+					cat.indexes[n] = i;
+					cat.times[n] = v != null ? v.getTime() : now;
+					cat.values[n] = points.getValue(type, i);
+					n++;
+				}
+			}
+			return cat;
+		}
+	}
+
+	/**
+	 * @return the saved catalog, or null if there is none. A truncated catalog is read up to
+	 * its last whole record.
+	 */
+	static PointCatalog load(String name) {
+		File f = fileFor(name);
+		if (!f.isFile()) return null;
+		DataInputStream in = null;
+		PointCatalog cat = null;
+		int n = 0;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+			if (in.readInt() != MAGIC) return null;
+			int count = in.readInt();
+			if (count < 0 || count > DataType.values().length << 16) return null;
+			cat = new PointCatalog(count);
+			for (; n < count; n++) {
+				cat.types[n] = in.readByte();
+				cat.indexes[n] = in.readUnsignedShort();
+				cat.times[n] = in.readLong();
+				cat.values[n] = in.readDouble();
+			}
+		} catch (EOFException e) {
+			// truncated
+		} catch (IOException e) {
+			LOGGER.debug("", e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					LOGGER.debug("", e);
+				}
+			}
+		}
+		if (cat == null || n == cat.size) return cat;
+		PointCatalog whole = new PointCatalog(n);
+		System.arraycopy(cat.types, 0, whole.types, 0, n);
+		System.arraycopy(cat.indexes, 0, whole.indexes, 0, n);
+		System.arraycopy(cat.times, 0, whole.times, 0, n);
+		System.arraycopy(cat.values, 0, whole.values, 0, n);
+		return whole;
+	}
+
+	/**
+	 * Moves an outstation's catalog to follow a rename.
+	 */
+	static void rename(String from, String to) {
+		File src = fileFor(from);
+		File dst = fileFor(to);
+		if (!src.isFile() || src.equals(dst) || dst.exists()) return;
+		if (!src.renameTo(dst)) LOGGER.debug("Could not rename " + src + " to " + dst);
+	}
+
+	static void delete(String name) {
+		File f = fileFor(name);
+		if (f.exists() && !f.delete()) LOGGER.debug("Could not delete " + f);
+	}
+
+}
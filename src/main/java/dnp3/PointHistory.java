@@ -0,0 +1,104 @@
+package dnp3;
+
+/**
+ * Bounded ring of one point's recent samples. Timestamps are kept as millisecond deltas
+ * from the previous sample, and values as primitives (see {@link DataType#decode}).
+ * The ring starts small and doubles up to its capacity, then overwrites the oldest sample.
+ */
+class PointHistory {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final int capacity;
+	private int[] deltas;
+	private double[] values;
+	private int head = 0;
+	private int size = 0;
+	private long firstTime;
+	private long lastTime;
+
+	PointHistory(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		int initial = Math.min(INITIAL_CAPACITY, this.capacity);
+		deltas = new int[initial];
+		values = new double[initial];
+	}
+
+	synchronized void add(long time, double value) {
+		long delta = time - lastTime;
+		if (size > 0 && delta > Integer.MAX_VALUE) {
+			// more than 24 days since the last sample; everything held is older than that
+			size = 0;
+		}
+		if (size == 0) {
+			head = 0;
+			firstTime = time;
+			lastTime = time;
+			deltas[0] = 0;
+			values[0] = value;
+			size = 1;
+			return;
+		}
+		if (delta < 0) delta = 0;
+		if (size == deltas.length) {
+			if (deltas.length < capacity) {
+				grow();
+			} else {
+				head = (head + 1) % deltas.length;
+				size -= 1;
+				firstTime += deltas[head];
+			}
+		}
+		int i = (head + size) % deltas.length;
+		deltas[i] = (int) delta;
+		values[i] = value;
+		size += 1;
+		lastTime += delta;
+	}
+
+	private void grow() {
+		int len = Math.min(capacity, deltas.length << 1);
+		int[] d = new int[len];
+		double[] v = new double[len];
+		for (int j = 0; j < size; j++) {
+			int i = (head + j) % deltas.length;
+			d[j] = deltas[i];
+			v[j] = values[i];
+		}
+		deltas = d;
+		values = v;
+		head = 0;
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the time of the newest sample, or Long.MIN_VALUE if there are none
+	 */
+	synchronized long getLastTime() {
+		return size > 0 ? lastTime : Long.MIN_VALUE;
+	}
+
+	/**
+	 * Copies the samples with from <= time < to, oldest first, stopping when the arrays
+	 * are full.
+	 * @return the number of samples copied
+	 */
+	synchronized int read(long from, long to, long[] timesOut, double[] valuesOut) {
+		int n = 0;
+		long t = firstTime;
+		for (int j = 0; j < size && n < timesOut.length; j++) {
+			int i = (head + j) % deltas.length;
+			if (j > 0) t += deltas[i];
+			if (t >= to) break;
+			if (t < from) continue;
+			timesOut[n] = t;
+			valuesOut[n] = values[i];
+			n++;
+		}
+		return n;
+	}
+
+}
@@ -0,0 +1,191 @@
+package dnp3;
+
+import java.util.Arrays;
+
+import org.dsa.iot.dslink.node.Node;
+
+/**
+ * Per-point state of one outstation, indexed by data type and point index, so that value
+ * updates can find their node without building a name or looking up a child by name.
+ * Each type's arrays grow to cover the highest index seen (at most 65536 entries). Growing
+ * copies them into new arrays, so every access holds the table's lock: a write made during
+ * the copy is not lost, and a value written by the thread handling a response is seen by
+ * the publisher, catalog and snapshot threads that read it. Callers reading many points at
+ * once hold the lock across them.
+ */
+class PointTable {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// the DNP3 RESTART flag, "not updated since the restart", given to values restored from
+	// the catalog
+	static final int RESTORED = 0x02;
+
+	private final Column[] columns = new Column[DataType.values().length];
+
+	private static class Column {
+		Node[] nodes = new Node[0];
+		double[] values = new double[0];
+		boolean[] hasValue = new boolean[0];
+		boolean[] stale = new boolean[0];
+		byte[] quality = new byte[0];
+		double[] deadband;
+		double[] percent;
+	}
+
+	PointTable() {
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = new Column();
+		}
+	}
+
+	synchronized Node get(DataType type, int index) {
+		Node[] arr = columns[type.ordinal()].nodes;
+		if (index < 0 || index >= arr.length) return null;
+		return arr[index];
+	}
+
+	synchronized void put(DataType type, int index, Node node) {
+		ensureCapacity(columns[type.ordinal()], index).nodes[index] = node;
+	}
+
+	/**
+	 * @return one more than the highest index the type's arrays can hold
+	 */
+	synchronized int size(DataType type) {
+		return columns[type.ordinal()].nodes.length;
+	}
+
+	synchronized boolean hasValue(DataType type, int index) {
+		boolean[] arr = columns[type.ordinal()].hasValue;
+		return index >= 0 && index < arr.length && arr[index];
+	}
+
+	synchronized double getValue(DataType type, int index) {
+		return columns[type.ordinal()].values[index];
+	}
+
+	/**
+	 * Records the last accepted value, which the next publisher flush will publish. The point's
+	 * node must already have been put.
+	 * @return whether the point was stale until now
+	 */
+	synchronized boolean setValue(DataType type, int index, double value) {
+		Column col = columns[type.ordinal()];
+		col.values[index] = value;
+		col.hasValue[index] = true;
+		boolean stale = col.stale[index];
+		col.stale[index] = false;
+		return stale;
+	}
+
+	/**
+	 * @return the DNP3 flags that came with the point's last value, 0 if none have
+	 */
+	synchronized int getQuality(DataType type, int index) {
+		return columns[type.ordinal()].quality[index] & 0xFF;
+	}
+
+	synchronized void setQuality(DataType type, int index, int quality) {
+		columns[type.ordinal()].quality[index] = (byte) quality;
+	}
+
+	/**
+	 * Keeps the point's value but marks it as not read yet, so that the filter lets the first
+	 * value that is read through. A point without a node is still known by its value, so its
+	 * value is kept too. Its quality is RESTORED until then.
+	 */
+	synchronized void setStale(DataType type, int index) {
+		Column col = columns[type.ordinal()];
+		col.stale[index] = true;
+		col.quality[index] = (byte) RESTORED;
+	}
+
+	synchronized boolean isStale(DataType type, int index) {
+		boolean[] arr = columns[type.ordinal()].stale;
+		return index >= 0 && index < arr.length && arr[index];
+	}
+
+	/**
+	 * Records the value of a point that has no node yet.
+	 */
+	synchronized void putValue(DataType type, int index, double value) {
+		Column col = ensureCapacity(columns[type.ordinal()], index);
+		col.values[index] = value;
+		col.hasValue[index] = true;
+		col.stale[index] = false;
+	}
+
+	/**
+	 * @return the point's absolute deadband override, or NaN if it has none
+	 */
+	synchronized double getDeadband(DataType type, int index) {
+		double[] arr = columns[type.ordinal()].deadband;
+		if (arr == null || index >= arr.length) return Double.NaN;
+		return arr[index];
+	}
+
+	/**
+	 * @return the point's percent deadband override, or NaN if it has none
+	 */
+	synchronized double getPercentDeadband(DataType type, int index) {
+		double[] arr = columns[type.ordinal()].percent;
+		if (arr == null || index >= arr.length) return Double.NaN;
+		return arr[index];
+	}
+
+	synchronized void setDeadbands(DataType type, int index, double deadband, double percent) {
+		Column col = ensureCapacity(columns[type.ordinal()], index);
+		if (col.deadband == null) {
+			col.deadband = nanArray(col.nodes.length);
+			col.percent = nanArray(col.nodes.length);
+		}
+		col.deadband[index] = deadband;
+		col.percent[index] = percent;
+	}
+
+	synchronized void clear() {
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = new Column();
+		}
+	}
+
+	private static Column ensureCapacity(Column col, int index) {
+		int len = col.nodes.length;
+		if (index < len) return col;
+		int cap = Math.max(len, INITIAL_CAPACITY);
+		while (cap <= index) cap <<= 1;
+
+		Node[] nodes = new Node[cap];
+		System.arraycopy(col.nodes, 0, nodes, 0, len);
+		double[] values = new double[cap];
+		System.arraycopy(col.values, 0, values, 0, len);
+		boolean[] hasValue = new boolean[cap];
+		System.arraycopy(col.hasValue, 0, hasValue, 0, len);
+		boolean[] stale = new boolean[cap];
+		System.arraycopy(col.stale, 0, stale, 0, len);
+		byte[] quality = new byte[cap];
+		System.arraycopy(col.quality, 0, quality, 0, len);
+		if (col.deadband != null) {
+			double[] deadband = nanArray(cap);
+			System.arraycopy(col.deadband, 0, deadband, 0, len);
+			double[] percent = nanArray(cap);
+			System.arraycopy(col.percent, 0, percent, 0, len);
+			col.deadband = deadband;
+			col.percent = percent;
+		}
+		col.values = values;
+		col.hasValue = hasValue;
+		col.stale = stale;
+		col.quality = quality;
+		col.nodes = nodes;
+		return col;
+	}
+
+	private static double[] nanArray(int len) {
+		double[] arr = new double[len];
+		Arrays.fill(arr, Double.NaN);
+		return arr;
+	}
+
+}
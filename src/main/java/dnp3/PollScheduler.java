@@ -0,0 +1,177 @@
+package dnp3;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs outstation polls on threads owned by the link rather than the SDK's shared pool.
+ * A single timer thread fires poll ticks, which only queue requests. The requests themselves
+ * are sent from a bounded worker pool by each outstation's {@link RequestQueue}. Connection
+ * attempts, which can block for a whole connect timeout, get a separate bounded pool so that
+ * unreachable outstations don't hold up polls.
+ */
+class PollScheduler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PollScheduler.class);
+
+	private final ScheduledThreadPoolExecutor timer;
+	private final ThreadPoolExecutor workers;
+	private final ThreadPoolExecutor connectors;
+
+	private final AtomicLong overruns = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong busyNanos = new AtomicLong();
+
+	PollScheduler(int threads, int connectThreads) {
+		threads = Math.max(1, threads);
+		connectThreads = Math.max(1, connectThreads);
+		timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("DNP3 Poll Timer"));
+		timer.setRemoveOnCancelPolicy(true);
+		workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("DNP3 Poller"));
+		connectors = new ThreadPoolExecutor(connectThreads, connectThreads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("DNP3 Connector"));
+		connectors.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Schedules a poll tick every interval milliseconds, starting at a random point within the
+	 * first interval so that outstations added together don't all poll together. Ticks run on
+	 * the timer thread and must not block.
+	 */
+	ScheduledFuture<?> schedule(final Runnable tick, long interval) {
+		interval = Math.max(1, interval);
+		long delay = ThreadLocalRandom.current().nextLong(interval);
+		return timer.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					tick.run();
+				} catch (Exception e) {
+					LOGGER.debug("", e);
+				}
+			}
+		}, delay, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs the task once on a worker after the delay.
+	 */
+	ScheduledFuture<?> scheduleOnce(final Runnable task, long delay) {
+		return timer.schedule(new Runnable() {
+			public void run() {
+				execute(task);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Runs a connection attempt on the connect pool after the delay.
+	 */
+	ScheduledFuture<?> scheduleConnect(final Runnable task, long delay) {
+		return timer.schedule(new Runnable() {
+			public void run() {
+				connectors.execute(task);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long delay, long period) {
+		return timer.scheduleAtFixedRate(task, delay, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs the task on a worker, adding the time it takes to the busy time.
+	 */
+	void execute(final Runnable task) {
+		workers.execute(new Runnable() {
+			public void run() {
+				long start = System.nanoTime();
+				try {
+					task.run();
+				} finally {
+					busyNanos.addAndGet(System.nanoTime() - start);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * @return the total time workers have spent running tasks, in nanoseconds
+	 */
+	long getBusyNanos() {
+		return busyNanos.get();
+	}
+	
+	int getQueuedTasks() {
+		return workers.getQueue().size();
+	}
+	
+	int getQueuedConnects() {
+		return connectors.getQueue().size();
+	}
+
+	void setThreads(int threads) {
+		resize(workers, threads);
+	}
+
+	int getThreads() {
+		return workers.getMaximumPoolSize();
+	}
+
+	void setConnectThreads(int threads) {
+		resize(connectors, threads);
+	}
+
+	private static void resize(ThreadPoolExecutor pool, int threads) {
+		threads = Math.max(1, threads);
+		if (threads > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(threads);
+			pool.setCorePoolSize(threads);
+		} else {
+			pool.setCorePoolSize(threads);
+			pool.setMaximumPoolSize(threads);
+		}
+	}
+
+	void recordOverrun() {
+		overruns.incrementAndGet();
+	}
+	
+	void recordSkipped() {
+		skipped.incrementAndGet();
+	}
+	
+	long getOverruns() {
+		return overruns.get();
+	}
+
+	long getSkipped() {
+		return skipped.get();
+	}
+
+	private static class NamedThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + " " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+}
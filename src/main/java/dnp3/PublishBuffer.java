@@ -0,0 +1,121 @@
+package dnp3;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.dsa.iot.dslink.node.Node;
+
+/**
+ * Collects the points updated while a response is being parsed, and publishes them together
+ * once it is done. Only the last value of each point is published. A point updated again
+ * before the flush is marked once. Flushes are spaced at least 1 / max rate apart, and
+ * updates that don't come with a response (unsolicited ones) are flushed after a short window.
+ */
+class PublishBuffer {
+
+	static final String RATE_ATTR = "Max Publish Rate";
+
+	private static final long BATCH_WINDOW = 100;
+
+	private final PointTable points;
+	private final PollScheduler scheduler;
+
+	private final boolean[][] dirty = new boolean[DataType.values().length][];
+	private int[] pending = new int[256];
+	private int[] flushing = new int[256];
+	private int size = 0;
+
+	private final Object flushLock = new Object();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private volatile long minInterval = 0;
+	private volatile long lastFlush = 0;
+
+	private final Runnable flushTask = new Runnable() {
+		public void run() {
+			flushScheduled.set(false);
+			requestFlush();
+		}
+	};
+
+	PublishBuffer(PointTable points, PollScheduler scheduler) {
+		this.points = points;
+		this.scheduler = scheduler;
+		for (int i = 0; i < dirty.length; i++) {
+			dirty[i] = new boolean[0];
+		}
+	}
+
+	/**
+	 * @param rate maximum flushes per second, or 0 for no limit
+	 */
+	void setMaxRate(double rate) {
+		minInterval = rate > 0 ? (long) (1000 / rate) : 0;
+	}
+
+	synchronized void mark(DataType type, int index) {
+		int t = type.ordinal();
+		boolean[] d = dirty[t];
+		if (index >= d.length) {
+			boolean[] grown = new boolean[Math.max(64, Integer.highestOneBit(index) << 1)];
+			System.arraycopy(d, 0, grown, 0, d.length);
+			dirty[t] = d = grown;
+		}
+		if (d[index]) return;
+		d[index] = true;
+		if (size == pending.length) {
+			int[] grown = new int[size << 1];
+			System.arraycopy(pending, 0, grown, 0, size);
+			pending = grown;
+		}
+		pending[size++] = (t << 16) | index;
+		if (size == 1) scheduleFlush(BATCH_WINDOW);
+	}
+
+	/**
+	 * Flushes now, unless that would exceed the maximum rate, in which case the flush is
+	 * deferred until it wouldn't.
+	 */
+	void requestFlush() {
+		long wait = lastFlush + minInterval - System.currentTimeMillis();
+		if (wait > 0) scheduleFlush(wait);
+		else flush();
+	}
+
+	private void scheduleFlush(long delay) {
+		if (flushScheduled.compareAndSet(false, true)) scheduler.scheduleOnce(flushTask, delay);
+	}
+
+	private void flush() {
+		DataType[] types = DataType.values();
+		synchronized (flushLock) {
+			int[] batch;
+			int n;
+			synchronized (this) {
+				if (size == 0) return;
+				batch = pending;
+				n = size;
+				if (flushing.length < pending.length) flushing = new int[pending.length];
+				pending = flushing;
+				flushing = batch;
+				size = 0;
+				for (int i = 0; i < n; i++) {
+					dirty[batch[i] >>> 16][batch[i] & 0xFFFF] = false;
+				}
+			}
+			lastFlush = System.currentTimeMillis();
+			for (int i = 0; i < n; i++) {
+				DataType type = types[batch[i] >>> 16];
+				int index = batch[i] & 0xFFFF;
+				Node pointNode = points.get(type, index);
+				if (pointNode != null) pointNode.setValue(type.toValue(points.getValue(type, index)));
+			}
+		}
+	}
+
+	synchronized void clear() {
+		for (int i = 0; i < size; i++) {
+			dirty[pending[i] >>> 16][pending[i] & 0xFFFF] = false;
+		}
+		size = 0;
+	}
+
+}
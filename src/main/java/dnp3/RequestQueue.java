@@ -0,0 +1,61 @@
+package dnp3;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * Per-outstation queue of pending requests, ordered by priority. The queue itself sends
+ * nothing: the {@link DnpChannel} the outstation is attached to takes requests from its
+ * members' queues in turn and sends them back to back.
+ */
+class RequestQueue {
+
+	private final PriorityBlockingQueue<DnpRequest> queue = new PriorityBlockingQueue<DnpRequest>();
+	private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+	private volatile DnpChannel channel;
+
+	void setChannel(DnpChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * @return false if the request was dropped because one with the same key is still pending
+	 */
+	boolean submit(DnpRequest req) {
+		if (req.key != null && !pendingKeys.add(req.key)) return false;
+		queue.add(req);
+		DnpChannel ch = channel;
+		if (ch != null) ch.scheduleDrain();
+		return true;
+	}
+
+	DnpRequest poll() {
+		return queue.poll();
+	}
+
+	boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	boolean isPending(String key) {
+		return pendingKeys.contains(key);
+	}
+
+	int size() {
+		return queue.size();
+	}
+
+	void release(DnpRequest req) {
+		if (req.key != null) pendingKeys.remove(req.key);
+	}
+
+	void clear() {
+		DnpRequest req;
+		while ((req = queue.poll()) != null) {
+			release(req);
+			req.failed(new Exception("Request cancelled"));
+		}
+	}
+
+}
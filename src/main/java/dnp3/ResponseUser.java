@@ -0,0 +1,51 @@
+package dnp3;
+
+import br.org.scadabr.dnp34j.master.common.utils.Lock;
+import br.org.scadabr.dnp34j.master.layers.application.AppRcv;
+import br.org.scadabr.dnp34j.master.session.DNPUser;
+import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
+
+/**
+ * A DNPUser that reports every response fragment once dnp34j has handled it. AppRcv releases
+ * the user's receive lock after each fragment, once its objects have gone to the Database, so
+ * the lock handed out here passes the fragment's application header on to a listener. This
+ * lets a request be sent with {@link DNPUser#send} and matched to its response, instead of
+ * parking a thread in sendSynch until the first fragment arrives.
+ */
+class ResponseUser extends DNPUser {
+
+	interface Listener {
+		/**
+		 * Called on dnp34j's receive thread, which must not be held up.
+		 * @param ac the application control byte: FIR, FIN, CON, UNS and the sequence number
+		 * @param fc the function code
+		 */
+		void fragment(ResponseUser user, byte ac, byte fc, byte iin1, byte iin2);
+	}
+
+	private final Listener listener;
+	private final Lock fragments = new Lock() {
+		@Override
+		public void unlock() {
+			super.unlock();
+			// AppRcv is single threaded, so these still describe the fragment just handled
+			AppRcv rcv = getAppRcv();
+			byte[] iin = rcv.getIin();
+			listener.fragment(ResponseUser.this, rcv.getAC(), rcv.getFC(), iin[0], iin[1]);
+		}
+	};
+
+	ResponseUser(DNPConfig config, Listener listener) {
+		super(config);
+		this.listener = listener;
+	}
+
+	/**
+	 * @return null until init has got far enough to create the real lock, as DNPUser does
+	 */
+	@Override
+	public Lock getUserRcvLock() {
+		return super.getUserRcvLock() == null ? null : fragments;
+	}
+
+}
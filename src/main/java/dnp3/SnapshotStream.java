@@ -0,0 +1,171 @@
+package dnp3;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.Permission;
+import org.dsa.iot.dslink.node.actions.Action;
+import org.dsa.iot.dslink.node.actions.ActionResult;
+import org.dsa.iot.dslink.node.actions.Parameter;
+import org.dsa.iot.dslink.node.actions.ResultType;
+import org.dsa.iot.dslink.node.actions.table.Row;
+import org.dsa.iot.dslink.node.actions.table.Table;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.handler.Handler;
+
+/**
+ * Streams the current value of every point of some outstations as the rows of a "get snapshot"
+ * action's table, without subscribing to them. Rows are read straight from each outstation's
+ * point table and sent CHUNK at a time, each chunk a separate task on the poll workers,
+ * CHUNK_DELAY apart, so that neither the rows nor the time taken pile up however many points
+ * there are. The stream stops early if the client closes it.
+ */
+class SnapshotStream implements Runnable {
+
+	static final String ACTION = "get snapshot";
+
+	private static final String ALL_TYPES = "All";
+	private static final int CHUNK = 1000;
+	private static final long CHUNK_DELAY = 10;
+
+	private final PollScheduler scheduler;
+	private final Table table;
+	private final List<DnpOutstation> outstations;
+	private final DataType onlyType;
+	private final int from;
+	private final int to;
+	private volatile boolean closed = false;
+
+	private int station = 0;
+	private int type = 0;
+	private int index;
+
+	private SnapshotStream(PollScheduler scheduler, ActionResult event, List<DnpOutstation> outstations) {
+		this.scheduler = scheduler;
+		this.table = event.getTable();
+		this.outstations = outstations;
+		Value tv = event.getParameter("Type");
+		DataType only = null;
+		for (DataType t: DataType.values()) {
+			if (tv != null && t.toString().equals(tv.getString())) only = t;
+		}
+		onlyType = only;
+		Value fv = event.getParameter("From Index");
+		Value lv = event.getParameter("To Index");
+		from = fv != null && fv.getNumber() != null ? Math.max(0, fv.getNumber().intValue()) : 0;
+		to = lv != null && lv.getNumber() != null ? Math.min(0xFFFF, lv.getNumber().intValue()) : 0xFFFF;
+		index = from;
+	}
+
+	/**
+	 * @param outstations where the outstations to stream are found when the action is invoked
+	 */
+	private static Action newAction(final PollScheduler scheduler, final Collection<DnpOutstation> outstations) {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				List<DnpOutstation> list = new ArrayList<DnpOutstation>(outstations);
+				Collections.sort(list, new Comparator<DnpOutstation>() {
+					public int compare(DnpOutstation a, DnpOutstation b) {
+						return a.getName().compareTo(b.getName());
+					}
+				});
+				start(scheduler, event, list);
+			}
+		});
+		List<String> types = new ArrayList<String>();
+		types.add(ALL_TYPES);
+		for (DataType t: DataType.values()) {
+			types.add(t.toString());
+		}
+		act.addParameter(new Parameter("Type", ValueType.makeEnum(types), new Value(ALL_TYPES)));
+		act.addParameter(new Parameter("From Index", ValueType.NUMBER, new Value(0)));
+		act.addParameter(new Parameter("To Index", ValueType.NUMBER, new Value(0xFFFF)));
+		act.addResult(new Parameter("outstation", ValueType.STRING));
+		act.addResult(new Parameter("type", ValueType.STRING));
+		act.addResult(new Parameter("index", ValueType.NUMBER));
+		act.addResult(new Parameter("value", ValueType.DYNAMIC));
+		act.addResult(new Parameter("timestamp", ValueType.TIME));
+		act.addResult(new Parameter("quality", ValueType.NUMBER));
+		act.setResultType(ResultType.STREAM);
+		return act;
+	}
+
+	static void makeAction(Node parent, PollScheduler scheduler, Collection<DnpOutstation> outstations) {
+		Action act = newAction(scheduler, outstations);
+		Node anode = parent.getChild(ACTION);
+		if (anode == null) parent.createChild(ACTION).setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+
+	private static void start(PollScheduler scheduler, ActionResult event, List<DnpOutstation> outstations) {
+		final SnapshotStream stream = new SnapshotStream(scheduler, event, outstations);
+		stream.table.setMode(Table.Mode.STREAM);
+		event.setCloseHandler(new Handler<Void>() {
+			public void handle(Void event) {
+				stream.closed = true;
+			}
+		});
+		scheduler.execute(stream);
+	}
+
+	/**
+	 * Sends the next chunk, then schedules the one after it, or closes the table once every
+	 * point has been sent.
+	 */
+	public void run() {
+		if (closed) return;
+		DataType[] types = DataType.values();
+		List<Row> rows = new ArrayList<Row>(CHUNK);
+		while (rows.size() < CHUNK && station < outstations.size()) {
+			if (type >= types.length) {
+				station++;
+				type = 0;
+				index = from;
+				continue;
+			}
+			DataType t = types[type];
+			PointTable points = outstations.get(station).getPoints();
+			int end = Math.min(to + 1, points.size(t));
+			if ((onlyType != null && t != onlyType) || index >= end) {
+				type++;
+				index = from;
+				continue;
+			}
+			String name = outstations.get(station).getName();
+			// so that the table is not cleared under the rows being read
+			synchronized (points) {
+				end = Math.min(end, points.size(t));
+				for (; index < end && rows.size() < CHUNK; index++) {
+					Row row = makeRow(name, points, t, index);
+					if (row != null) rows.add(row);
+				}
+			}
+		}
+		if (!rows.isEmpty()) table.addBatchRows(rows);
+		if (station < outstations.size()) {
+			scheduler.scheduleOnce(this, CHUNK_DELAY);
+		} else {
+			table.close();
+		}
+	}
+
+	/**
+	 * @return the point's row, or null if the outstation has not reported it. Points without
+	 * a node, in lazy mode, have no timestamp.
+	 */
+	private static Row makeRow(String outstation, PointTable points, DataType type, int index) {
+		Node pointNode = points.get(type, index);
+		if (pointNode == null && !points.hasValue(type, index)) return null;
+		Value current = pointNode != null ? pointNode.getValue() : null;
+		return Row.make(new Value(outstation), new Value(type.toString()), new Value(index),
+				type.toValue(points.getValue(type, index)),
+				new Value(current != null ? current.getTimeStamp() : null),
+				new Value(points.getQuality(type, index)));
+	}
+
+}
@@ -0,0 +1,129 @@
+package dnp3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import br.org.scadabr.dnp34j.master.common.AppFeatures;
+import br.org.scadabr.dnp34j.master.common.DataMapFeatures;
+import br.org.scadabr.dnp34j.master.common.InitFeatures;
+import br.org.scadabr.dnp34j.master.common.utils.Buffer;
+import br.org.scadabr.dnp34j.master.session.DNPUser;
+
+/**
+ * The points of one outstation that clients are subscribed to, and the static read that
+ * covers just those. Subscribed indexes are coalesced into ranges per type, merging ranges
+ * that are at most gap unsubscribed points apart, so that a few scattered points do not each
+ * need an object header. If that still leaves more than MAX_RANGES ranges, the gap is widened
+ * until it does not.
+ */
+class SubscribedPoints {
+
+	static final String GAP_ATTR = "Range Read Gap";
+	static final String FULL_READ_ATTR = "Full Static Read Every";
+
+	// each range takes 7 bytes of dnp34j's InitFeatures.S byte request buffer
+	private static final int MAX_RANGES = 48;
+	private static final byte DOUBLE_INPUT_STATIC = (byte) 3;
+
+	private final Map<DataType, TreeSet<Integer>> points = new EnumMap<DataType, TreeSet<Integer>>(DataType.class);
+	private int size = 0;
+
+	/**
+	 * @return true if nothing was subscribed before
+	 */
+	synchronized boolean add(DataType type, int index) {
+		TreeSet<Integer> indexes = points.get(type);
+		if (indexes == null) {
+			indexes = new TreeSet<Integer>();
+			points.put(type, indexes);
+		}
+		if (indexes.add(index)) size++;
+		return size == 1;
+	}
+
+	/**
+	 * @return true if nothing is subscribed any more
+	 */
+	synchronized boolean remove(DataType type, int index) {
+		TreeSet<Integer> indexes = points.get(type);
+		if (indexes != null && indexes.remove(index)) size--;
+		return size == 0;
+	}
+
+	synchronized boolean isEmpty() {
+		return size == 0;
+	}
+
+	synchronized void clear() {
+		points.clear();
+		size = 0;
+	}
+
+	/**
+	 * @return a read of the subscribed points in default variations, or null if there are none
+	 */
+	synchronized Buffer buildRead(DNPUser user, int gap) throws Exception {
+		if (size == 0) return null;
+		List<int[]> ranges = coalesce(Math.max(0, gap));
+		if (ranges.size() > MAX_RANGES) {
+			// merging every gap up to the (n - MAX_RANGES)th smallest leaves at most MAX_RANGES
+			int[] gaps = gaps(ranges);
+			Arrays.sort(gaps);
+			ranges = coalesce(gaps[ranges.size() - MAX_RANGES - 1]);
+		}
+		Buffer frame = new Buffer(InitFeatures.S);
+		for (int[] r: ranges) {
+			user.getAppSnd().addObjectToRequest(frame, AppFeatures.READ, staticGroup(DataType.values()[r[0]]), (byte) 0, r[1], r[2], false);
+		}
+		return frame;
+	}
+
+	// {type ordinal, lo, hi} for each range, types in declaration order
+	private List<int[]> coalesce(int gap) {
+		List<int[]> ranges = new ArrayList<int[]>();
+		for (Map.Entry<DataType, TreeSet<Integer>> entry: points.entrySet()) {
+			int[] r = null;
+			for (int index: entry.getValue()) {
+				if (r != null && index - r[2] - 1 <= gap) {
+					r[2] = index;
+				} else {
+					r = new int[] {entry.getKey().ordinal(), index, index};
+					ranges.add(r);
+				}
+			}
+		}
+		return ranges;
+	}
+
+	// the unsubscribed points between consecutive ranges of the same type
+	private static int[] gaps(List<int[]> ranges) {
+		int[] gaps = new int[ranges.size()];
+		int n = 0;
+		for (int i = 1; i < ranges.size(); i++) {
+			int[] prev = ranges.get(i - 1);
+			int[] r = ranges.get(i);
+			if (prev[0] == r[0]) gaps[n++] = r[1] - prev[2] - 1;
+		}
+		// ranges of different types can never merge
+		for (; n < gaps.length; n++) {
+			gaps[n] = Integer.MAX_VALUE;
+		}
+		return gaps;
+	}
+
+	private static byte staticGroup(DataType type) {
+		switch (type) {
+		case BI: return DataMapFeatures.BINARY_INPUT_STATIC;
+		case DI: return DOUBLE_INPUT_STATIC;
+		case BO: return DataMapFeatures.BINARY_OUTPUT_STATIC;
+		case CI: return DataMapFeatures.COUNTER_STATIC;
+		case AI: return DataMapFeatures.ANALOG_INPUT_STATIC;
+		default: return DataMapFeatures.ANALOG_OUTPUT_STATIC;
+		}
+	}
+
+}
@@ -0,0 +1,360 @@
+package dnp3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Point updates made while the broker is disconnected, kept in a memory-mapped ring file so
+ * that they can be replayed once it is back, even across a restart. The file is a header
+ * (magic, capacity, head and tail sequence numbers, evictions), a table of MAX_SLOTS
+ * outstation names, and 24 byte records: time, name slot, index, type, quality, value. When
+ * the ring is full the oldest record is overwritten. Slots are handed out as outstations
+ * first record, and the table is cleared whenever the ring has been drained.
+ */
+class UpdateJournal {
+	private static final Logger LOGGER = LoggerFactory.getLogger(UpdateJournal.class);
+
+	static final String NODE = "Offline Buffer";
+	static final String ENABLED_ATTR = "Enabled";
+	static final String SIZE_ATTR = "Size MB";
+	static final String REPLAY_ATTR = "Replay";
+	static final String REPLAY_VALUES = "values";
+	static final String REPLAY_HISTORY = "history";
+
+	private static final File FILE = new File("journal", "updates.jnl");
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAGIC = 0x444E504A;
+	private static final int CAPACITY = 4;
+	private static final int HEAD = 8;
+	private static final int TAIL = 16;
+	private static final int EVICTED = 24;
+	private static final int MAX_SLOTS = 4096;
+	private static final int SLOT_BYTES = 256;
+	private static final int SLOTS = 4096;
+	private static final int RECORDS = SLOTS + MAX_SLOTS * SLOT_BYTES;
+	private static final int RECORD_BYTES = 24;
+	private static final int BATCH = 4096;
+
+	private final PollScheduler scheduler;
+
+	private RandomAccessFile file;
+	private MappedByteBuffer buf;
+	private long size;
+	private int capacity;
+	private long head;
+	private long tail;
+	private long evicted;
+	private final String[] names = new String[MAX_SLOTS];
+	private final Map<String, Integer> slots = new HashMap<String, Integer>();
+	private int slotCount = 0;
+
+	private final Map<String, DnpOutstation> owners = new HashMap<String, DnpOutstation>();
+	private volatile boolean asHistory = false;
+	private volatile boolean connected = false;
+	// enabled and disconnected
+	private volatile boolean recording = false;
+	private final AtomicBoolean replaying = new AtomicBoolean(false);
+
+	private final Runnable replayTask = new Runnable() {
+		public void run() {
+			replay();
+		}
+	};
+
+	UpdateJournal(PollScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Opens the ring file, keeping what it holds if its size has not changed, or closes it.
+	 */
+	synchronized void configure(boolean enabled, int sizeMb, boolean asHistory) {
+		this.asHistory = asHistory;
+		long size = Math.min(2047, Math.max(2, sizeMb)) << 20;
+		if (buf != null && (!enabled || this.size != size)) close();
+		if (enabled && buf == null) {
+			try {
+				open(size);
+			} catch (IOException e) {
+				LOGGER.debug("", e);
+				close();
+			}
+		}
+		recording = buf != null && !connected;
+		if (buf != null && connected) scheduleReplay();
+	}
+
+	private void open(long size) throws IOException {
+		File dir = FILE.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+		boolean fresh = !FILE.exists() || FILE.length() != size;
+		file = new RandomAccessFile(FILE, "rw");
+		file.setLength(size);
+		buf = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		int cap = (int) ((size - RECORDS) / RECORD_BYTES);
+		if (fresh || buf.getInt(0) != MAGIC || buf.getInt(CAPACITY) != cap) {
+			buf.putInt(0, MAGIC);
+			buf.putInt(CAPACITY, cap);
+			buf.putLong(HEAD, 0);
+			buf.putLong(TAIL, 0);
+			buf.putLong(EVICTED, 0);
+			for (int i = 0; i < MAX_SLOTS; i++) {
+				buf.putShort(SLOTS + i * SLOT_BYTES, (short) 0);
+			}
+		}
+		this.size = size;
+		capacity = cap;
+		head = buf.getLong(HEAD);
+		tail = buf.getLong(TAIL);
+		evicted = buf.getLong(EVICTED);
+		if (head < 0 || tail < head || tail - head > capacity) head = tail = 0;
+		loadNames();
+	}
+
+	private void loadNames() {
+		slots.clear();
+		slotCount = 0;
+		byte[] b = new byte[SLOT_BYTES];
+		for (int i = 0; i < MAX_SLOTS; i++) {
+			int pos = SLOTS + i * SLOT_BYTES;
+			int len = buf.getShort(pos) & 0xFFFF;
+			if (len == 0 || len > SLOT_BYTES - 2) {
+				names[i] = null;
+				continue;
+			}
+			for (int j = 0; j < len; j++) {
+				b[j] = buf.get(pos + 2 + j);
+			}
+			names[i] = new String(b, 0, len, UTF8);
+			slots.put(names[i], i);
+			slotCount = i + 1;
+		}
+	}
+
+	private void writeName(int slot, String name) {
+		int pos = SLOTS + slot * SLOT_BYTES;
+		byte[] b = name == null ? new byte[0] : name.getBytes(UTF8);
+		buf.putShort(pos, (short) b.length);
+		for (int j = 0; j < b.length; j++) {
+			buf.put(pos + 2 + j, b[j]);
+		}
+		names[slot] = name;
+	}
+
+	private void clearNames() {
+		for (int i = 0; i < slotCount; i++) {
+			if (names[i] != null) writeName(i, null);
+		}
+		slots.clear();
+		slotCount = 0;
+	}
+
+	synchronized void close() {
+		recording = false;
+		if (buf != null) buf.force();
+		buf = null;
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				LOGGER.debug("", e);
+			}
+		}
+		file = null;
+	}
+
+	synchronized void flush() {
+		if (buf != null) buf.force();
+	}
+
+	/**
+	 * Called as the broker connection goes up or down. Once it is back, whatever was
+	 * recorded is replayed on a poll thread.
+	 */
+	synchronized void setConnected(boolean connected) {
+		this.connected = connected;
+		recording = buf != null && !connected;
+		if (connected && buf != null) scheduleReplay();
+	}
+
+	boolean isRecording() {
+		return recording;
+	}
+
+	synchronized void attach(DnpOutstation os) {
+		owners.put(os.getName(), os);
+	}
+
+	synchronized void detach(DnpOutstation os) {
+		if (owners.get(os.getName()) == os) owners.remove(os.getName());
+	}
+
+	/**
+	 * Moves the outstation's buffered updates to its new name.
+	 */
+	synchronized void rename(String from, String to) {
+		DnpOutstation os = owners.remove(from);
+		if (os != null) owners.put(to, os);
+		Integer slot = slots.remove(from);
+		if (slot == null || buf == null) return;
+		if (slots.containsKey(to)) {
+			writeName(slot, null);
+		} else {
+			writeName(slot, to);
+			slots.put(to, slot);
+		}
+	}
+
+	/**
+	 * Appends an update while recording, evicting the oldest one if the ring is full.
+	 */
+	void record(String outstation, DataType type, int index, long time, double value, int quality) {
+		if (!recording) return;
+		synchronized (this) {
+			if (buf == null) return;
+			Integer s = slots.get(outstation);
+			int slot;
+			if (s != null) {
+				slot = s;
+			} else {
+				slot = newSlot(outstation);
+				if (slot < 0) return;
+			}
+			if (tail - head == capacity) {
+				head++;
+				evicted++;
+				buf.putLong(HEAD, head);
+				buf.putLong(EVICTED, evicted);
+			}
+			int pos = RECORDS + (int) (tail % capacity) * RECORD_BYTES;
+			buf.putLong(pos, time);
+			buf.putShort(pos + 8, (short) slot);
+			buf.putShort(pos + 10, (short) index);
+			buf.put(pos + 12, (byte) type.ordinal());
+			buf.put(pos + 13, (byte) quality);
+			buf.putDouble(pos + 16, value);
+			tail++;
+			buf.putLong(TAIL, tail);
+		}
+	}
+
+	private int newSlot(String outstation) {
+		if (outstation.getBytes(UTF8).length > SLOT_BYTES - 2) {
+			LOGGER.debug("Name too long to buffer updates: " + outstation);
+			return -1;
+		}
+		for (int i = 0; i < MAX_SLOTS; i++) {
+			if (names[i] == null) {
+				writeName(i, outstation);
+				slots.put(outstation, i);
+				slotCount = Math.max(slotCount, i + 1);
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of updates waiting to be replayed
+	 */
+	synchronized long getBuffered() {
+		return tail - head;
+	}
+
+	/**
+	 * @return the number of updates overwritten before they could be replayed
+	 */
+	synchronized long getEvicted() {
+		return evicted;
+	}
+
+	private void scheduleReplay() {
+		if (replaying.compareAndSet(false, true)) scheduler.execute(replayTask);
+	}
+
+	/**
+	 * Replays the ring oldest first, in batches so that nothing is held locked while point
+	 * nodes are updated, and stops early if the broker goes away again. Replayed points
+	 * are republished with their current value at the end, so they don't keep a buffered one.
+	 */
+	private void replay() {
+		DataType[] types = DataType.values();
+		long[] times = new long[BATCH];
+		int[] keys = new int[BATCH];
+		double[] values = new double[BATCH];
+		DnpOutstation[] targets = new DnpOutstation[BATCH];
+		Map<DnpOutstation, BitSet> touched = new HashMap<DnpOutstation, BitSet>();
+		long count = 0;
+		long start = System.currentTimeMillis();
+		try {
+			while (true) {
+				long from;
+				int n;
+				synchronized (this) {
+					if (recording || buf == null) break;
+					from = head;
+					n = (int) Math.min(BATCH, tail - head);
+					if (n == 0) {
+						clearNames();
+						break;
+					}
+					for (int i = 0; i < n; i++) {
+						int pos = RECORDS + (int) ((from + i) % capacity) * RECORD_BYTES;
+						int slot = buf.getShort(pos + 8) & 0xFFFF;
+						times[i] = buf.getLong(pos);
+						keys[i] = (buf.get(pos + 12) & 0xFF) << 16 | (buf.getShort(pos + 10) & 0xFFFF);
+						values[i] = buf.getDouble(pos + 16);
+						targets[i] = slot < MAX_SLOTS && names[slot] != null ? owners.get(names[slot]) : null;
+					}
+				}
+				boolean history = asHistory;
+				for (int i = 0; i < n; i++) {
+					DnpOutstation os = targets[i];
+					int t = keys[i] >>> 16;
+					if (os == null || t >= types.length) continue;
+					os.replay(types[t], keys[i] & 0xFFFF, times[i], values[i], history);
+					BitSet bits = touched.get(os);
+					if (bits == null) {
+						bits = new BitSet();
+						touched.put(os, bits);
+					}
+					bits.set(keys[i]);
+				}
+				count += n;
+				synchronized (this) {
+					// evictions may have moved the head past this batch already
+					if (buf != null && head < from + n) {
+						head = from + n;
+						buf.putLong(HEAD, head);
+					}
+				}
+			}
+			for (Map.Entry<DnpOutstation, BitSet> entry: touched.entrySet()) {
+				BitSet bits = entry.getValue();
+				for (int k = bits.nextSetBit(0); k >= 0; k = bits.nextSetBit(k + 1)) {
+					entry.getKey().replayed(types[k >>> 16], k & 0xFFFF);
+				}
+				entry.getKey().replayDone();
+			}
+			if (count > 0) LOGGER.info("Replayed " + count + " buffered updates in " + (System.currentTimeMillis() - start) + " ms");
+		} finally {
+			replaying.set(false);
+		}
+		synchronized (this) {
+			// the broker may have dropped and come back while this was finishing
+			if (connected && buf != null && tail > head) scheduleReplay();
+		}
+	}
+
+}
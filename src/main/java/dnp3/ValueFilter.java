@@ -0,0 +1,83 @@
+package dnp3;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.value.Value;
+
+/**
+ * Decides whether a point update is worth publishing. When enabled, values equal to the last
+ * published one are dropped. Numeric types can also have an absolute and a percent deadband,
+ * set per type on the outstation or per point in the point table.
+ */
+class ValueFilter {
+
+	static final String ENABLED_ATTR = "Filter Updates";
+	static final DataType[] NUMERIC_TYPES = {DataType.AI, DataType.CI, DataType.AO};
+
+	private volatile boolean enabled = false;
+	private final double[] deadband = new double[DataType.values().length];
+	private final double[] percent = new double[DataType.values().length];
+
+	private final AtomicLong suppressed = new AtomicLong();
+
+	static String deadbandAttr(DataType type) {
+		return type.toString() + " Deadband";
+	}
+
+	static String percentAttr(DataType type) {
+		return type.toString() + " Deadband %";
+	}
+
+	static boolean isNumeric(DataType type) {
+		return type == DataType.AI || type == DataType.CI || type == DataType.AO;
+	}
+
+	void configure(Node node) {
+		Value en = node.getAttribute(ENABLED_ATTR);
+		enabled = en != null && en.getBool() != null && en.getBool().booleanValue();
+		for (DataType type: NUMERIC_TYPES) {
+			deadband[type.ordinal()] = getNumber(node, deadbandAttr(type));
+			percent[type.ordinal()] = getNumber(node, percentAttr(type));
+		}
+	}
+
+	private static double getNumber(Node node, String attr) {
+		Value v = node.getAttribute(attr);
+		if (v == null || v.getNumber() == null) return 0;
+		return Math.max(0, v.getNumber().doubleValue());
+	}
+
+	/**
+	 * @return true if the value should be published, false if it was suppressed
+	 */
+	boolean accept(PointTable points, DataType type, int index, double value) {
+		if (!enabled || !points.hasValue(type, index) || points.isStale(type, index)) return true;
+		double last = points.getValue(type, index);
+		if (value == last) {
+			suppressed.incrementAndGet();
+			return false;
+		}
+		if (!isNumeric(type)) return true;
+
+		double delta = Math.abs(value - last);
+		double db = points.getDeadband(type, index);
+		if (Double.isNaN(db)) db = deadband[type.ordinal()];
+		if (db > 0 && delta <= db) {
+			suppressed.incrementAndGet();
+			return false;
+		}
+		double pct = points.getPercentDeadband(type, index);
+		if (Double.isNaN(pct)) pct = percent[type.ordinal()];
+		if (pct > 0 && delta <= Math.abs(last) * pct / 100) {
+			suppressed.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	long getSuppressed() {
+		return suppressed.get();
+	}
+
+}
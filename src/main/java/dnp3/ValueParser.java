@@ -0,0 +1,106 @@
+package dnp3;
+
+/**
+ * Allocation-free parsing of the value strings dnp34j stores in its DataElements, which it
+ * produces with Boolean.toString, Integer.toString and Double.toString.
+ */
+final class ValueParser {
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private ValueParser() {
+	}
+
+	static boolean parseBoolean(String s) {
+		return s != null && s.length() == 4 && s.charAt(0) == 't';
+	}
+
+	static long parseLong(String s) {
+		int len = s.length();
+		int i = 0;
+		boolean neg = false;
+		if (len > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+			neg = s.charAt(0) == '-';
+			i++;
+		}
+		if (i == len) throw new NumberFormatException(s);
+		long v = 0;
+		for (; i < len; i++) {
+			int d = s.charAt(i) - '0';
+			if (d < 0 || d > 9) {
+				// e.g. "12.0"; let the general parser handle anything that isn't a plain integer
+				return (long) parseDouble(s);
+			}
+			v = v * 10 + d;
+		}
+		return neg ? -v : v;
+	}
+
+	/**
+	 * Exact for every decimal whose significant digits fit in 53 bits and whose decimal
+	 * exponent is within [-22, 22], since one multiply or divide by an exactly representable
+	 * power of ten rounds correctly. Everything else goes to Double.parseDouble.
+	 */
+	static double parseDouble(String s) {
+		int len = s.length();
+		int i = 0;
+		boolean neg = false;
+		if (len > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+			neg = s.charAt(0) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int exp = 0;
+		int digits = 0;
+		boolean seenDot = false;
+		for (; i < len; i++) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				if (mantissa >= MAX_EXACT_MANTISSA / 10) return Double.parseDouble(s);
+				mantissa = mantissa * 10 + (c - '0');
+				if (seenDot) exp--;
+				digits++;
+			} else if (c == '.' && !seenDot) {
+				seenDot = true;
+			} else if (c == 'E' || c == 'e') {
+				break;
+			} else {
+				return Double.parseDouble(s);
+			}
+		}
+		if (digits == 0) return Double.parseDouble(s);
+		if (i < len) {
+			i++;
+			boolean expNeg = false;
+			if (i < len && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+				expNeg = s.charAt(i) == '-';
+				i++;
+			}
+			if (i == len) return Double.parseDouble(s);
+			int e = 0;
+			for (; i < len; i++) {
+				int d = s.charAt(i) - '0';
+				if (d < 0 || d > 9 || e > 1000) return Double.parseDouble(s);
+				e = e * 10 + d;
+			}
+			exp += expNeg ? -e : e;
+		}
+		double v = mantissa;
+		if (exp == 0 || mantissa == 0) {
+			// nothing to scale
+		} else if (exp > 0 && exp < POWERS_OF_TEN.length) {
+			v *= POWERS_OF_TEN[exp];
+		} else if (exp < 0 && -exp < POWERS_OF_TEN.length) {
+			v /= POWERS_OF_TEN[-exp];
+		} else {
+			return Double.parseDouble(s);
+		}
+		return neg ? -v : v;
+	}
+
+}
@@ -0,0 +1,108 @@
+package dnp3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import br.org.scadabr.dnp34j.master.common.DataObject;
+import br.org.scadabr.dnp34j.master.layers.DataMap;
+import br.org.scadabr.dnp34j.master.session.DNPUser;
+import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
+import br.org.scadabr.dnp34j.master.session.config.EthernetParameters;
+import br.org.scadabr.dnp34j.master.session.database.DataElement;
+import br.org.scadabr.dnp34j.master.session.database.Database;
+
+/**
+ * Runs static responses through dnp34j's DataMap into a database, the way a live response is
+ * decoded, and measures the heap still reachable after a garbage collection. With
+ * {@link PassThroughDatabase} it must not grow with the number of responses. The stock
+ * Database is run the same way, to show that the measurement would catch it if it did.
+ */
+public class PassThroughDatabaseTest {
+
+	// binary inputs, counters and analog inputs, each with flags
+	private static final int[][] OBJECTS = {{1, 2}, {20, 1}, {30, 1}};
+	private static final int POINTS = 2000;
+	private static final int WARMUP = 20;
+	private static final int CYCLES = 300;
+	private static final long SLACK = 2L << 20;
+
+	// keeps the database under test reachable while the heap is measured
+	private Database retained;
+
+	@Test
+	public void retainedHeapStaysFlat() throws Exception {
+		final long[] elements = new long[1];
+		Database db = new PassThroughDatabase();
+		db.setCallback(new Database.Handler() {
+			public void dataChanged(DataElement element) {
+				elements[0]++;
+			}
+		});
+		long growth = growth(db);
+		assertEquals((long) (WARMUP + CYCLES) * POINTS * OBJECTS.length, elements[0]);
+		assertTrue("Retained heap grew by " + growth + " bytes over " + CYCLES + " responses", growth < SLACK);
+	}
+
+	@Test
+	public void stockDatabaseGrows() throws Exception {
+		long growth = growth(new Database());
+		assertTrue("Retained heap grew by only " + growth + " bytes", growth > SLACK);
+	}
+
+	/**
+	 * @return how much the retained heap grew between the end of the warmup and the end of
+	 * the run
+	 */
+	private long growth(Database db) throws Exception {
+		retained = db;
+		DNPUser user = new DNPUser(new DNPConfig(new EthernetParameters("127.0.0.1", 20000), 0, 1));
+		user.setDatabase(db);
+		DataMap map = new DataMap(user);
+		Random random = new Random(0x444E5033L);
+		byte[][] objects = new byte[OBJECTS.length][];
+		for (int i = 0; i < WARMUP; i++) {
+			respond(map, random, objects);
+		}
+		long before = retainedHeap();
+		for (int i = 0; i < CYCLES; i++) {
+			respond(map, random, objects);
+		}
+		long after = retainedHeap();
+		retained = null;
+		return after - before;
+	}
+
+	/**
+	 * Decodes one static response of POINTS of each object type, with new values.
+	 */
+	private static void respond(DataMap map, Random random, byte[][] objects) {
+		for (int t = 0; t < OBJECTS.length; t++) {
+			byte group = (byte) OBJECTS[t][0];
+			byte variation = (byte) OBJECTS[t][1];
+			int bits = Math.abs(DataObject.length(group, variation));
+			if (objects[t] == null) objects[t] = new byte[(POINTS * bits + 7) / 8];
+			random.nextBytes(objects[t]);
+			for (int i = 0; i < POINTS; i++) {
+				// the online flag
+				objects[t][i * bits / 8] = 0x01;
+			}
+			map.set(group, variation, 0, POINTS - 1, objects[t]);
+		}
+	}
+
+	private static long retainedHeap() throws InterruptedException {
+		Runtime rt = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(50);
+			used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+		}
+		return used;
+	}
+
+}